@@ -1,13 +1,33 @@
 package com.tempuro.auth;
 
+import java.util.Map;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class AuthServiceApplication {
 
+	/*
+	 * Valores por defecto de métricas, con la prioridad más baja: cualquier
+	 * application.properties, variable de entorno o argumento los sobrescribe.
+	 * 1. Se expone el endpoint prometheus de Actuator (MetricsConfig lo sirve en /metrics).
+	 * 2. Histogramas de latencia para http.server.requests (por uri, método y estado)
+	 * y para todos los timers auth.*: Prometheus calcula los percentiles con histogram_quantile.
+	 * 3. Todas las métricas llevan el tag application.
+	 */
+	private static final Map<String, Object> DEFAULT_PROPERTIES = Map.of(
+			"management.endpoints.web.exposure.include", "health,prometheus",
+			"management.metrics.distribution.percentiles-histogram.http.server.requests", "true",
+			"management.metrics.distribution.percentiles-histogram.auth", "true",
+			"management.metrics.tags.application", "auth-service");
+
 	public static void main(String[] args) {
-		SpringApplication.run(AuthServiceApplication.class, args);
+		SpringApplication application = new SpringApplication(AuthServiceApplication.class);
+		application.setDefaultProperties(DEFAULT_PROPERTIES);
+		application.run(args);
 	}
 
 }
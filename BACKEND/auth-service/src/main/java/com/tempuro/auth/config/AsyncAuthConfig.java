@@ -0,0 +1,97 @@
+package com.tempuro.auth.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * Perfil "async": los endpoints de /auth se atienden con Servlet async
+ * (ver AsyncAuthController)
+ * 1. El hilo de Tomcat solo deserializa la petición y la encola: queda libre
+ * mientras la petición espera su turno.
+ * 2. Dos pools de trabajo, para que los refresh no esperen detrás de BCrypt:
+ * - authRequestExecutor (refresh): todo su trabajo es SQL en el pool de escritura,
+ * así que tiene tantos hilos como conexiones de escritura quedan libres después de
+ * las que usan los procesos en segundo plano (auth.async.reservedConnections:
+ * RefreshTokenWriter, LoginActivityRecorder, TokenCleanupJob y la sincronización
+ * de UnknownEmailCache, una cada uno). Ningún hilo se queda esperando conexión.
+ * - authLoginExecutor (login y register): pasan casi todo el tiempo esperando a
+ * PasswordHashingExecutor sin conexión. Por defecto tiene los hilos del pool de
+ * lectura (la búsqueda del usuario va allí con auth.datasource.routing.enabled) o,
+ * sin réplica, los mismos que authRequestExecutor. Se ajusta con
+ * auth.async.login.threads.
+ * 3. Los tamaños salen de los pools Hikari que existen de verdad (auth-write y
+ * auth-read con el enrutado, o el único de Spring Boot sin él), no de una propiedad.
+ * 4. Las peticiones que no caben esperan en una cola acotada sin coger hilo ni
+ * conexión; si la cola se llena se responde 503 + Retry-After al momento.
+ */
+@Configuration
+@Profile("async")
+public class AsyncAuthConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncAuthConfig.class);
+
+    private static final String READ_POOL_NAME = "auth-read";
+    private static final int HIKARI_DEFAULT_POOL_SIZE = 10;
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor authRequestExecutor(ObjectProvider<HikariDataSource> pools,
+            @Value("${auth.async.reservedConnections:4}") int reservedConnections,
+            @Value("${auth.async.queueCapacity:1000}") int queueCapacity) {
+        int threads = requestThreads(pools, reservedConnections);
+        logger.info("authRequestExecutor con {} hilos", threads);
+        return executor("auth-request-", threads, queueCapacity);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor authLoginExecutor(ObjectProvider<HikariDataSource> pools,
+            @Value("${auth.async.reservedConnections:4}") int reservedConnections,
+            @Value("${auth.async.login.threads:0}") int loginThreads,
+            @Value("${auth.async.queueCapacity:1000}") int queueCapacity) {
+        int threads = loginThreads;
+        if (threads <= 0) {
+            int readPoolSize = pools.stream()
+                    .filter(pool -> READ_POOL_NAME.equals(pool.getPoolName()))
+                    .mapToInt(HikariDataSource::getMaximumPoolSize)
+                    .sum();
+            threads = readPoolSize > 0 ? readPoolSize : requestThreads(pools, reservedConnections);
+        }
+        logger.info("authLoginExecutor con {} hilos", threads);
+        return executor("auth-login-", threads, queueCapacity);
+    }
+
+    private static int requestThreads(ObjectProvider<HikariDataSource> pools, int reservedConnections) {
+        int writePoolSize = pools.stream()
+                .filter(pool -> !READ_POOL_NAME.equals(pool.getPoolName()))
+                .mapToInt(HikariDataSource::getMaximumPoolSize)
+                .sum();
+        if (writePoolSize == 0) {
+            writePoolSize = HIKARI_DEFAULT_POOL_SIZE;
+        }
+        return Math.max(1, writePoolSize - reservedConnections);
+    }
+
+    private static ThreadPoolExecutor executor(String threadPrefix, int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadPrefix + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+}
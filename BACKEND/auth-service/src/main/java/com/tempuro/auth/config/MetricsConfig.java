@@ -0,0 +1,22 @@
+package com.tempuro.auth.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/*
+ * /metrics es un alias de /actuator/prometheus para que Prometheus pueda
+ * scrapear en local con la ruta de siempre. Es un forward interno: la respuesta
+ * la genera el endpoint de Actuator.
+ * SecurityConfig deja ambas rutas sin autenticación; fuera de local conviene
+ * separar Actuator con management.server.port.
+ */
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+
+    @Override
+    public void addViewControllers(ViewControllerRegistry registry) {
+        registry.addViewController("/metrics").setViewName("forward:/actuator/prometheus");
+    }
+
+}
@@ -1,46 +1,113 @@
 package com.tempuro.auth.config;
 
-import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
 import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.time.Duration;
+import java.util.Locale;
 
 @Configuration
 public class OpenTelemetryConfig {
 
     private static final String SERVICE_NAME = "auth-service";
-    private static final String OTLP_ENDPOINT = "http://localhost:4317"; // Collector OTLP
 
     private static final Logger logger = LoggerFactory.getLogger(OpenTelemetryConfig.class);
 
+    /*
+     * Modo de trazas:
+     * - full: se exportan todos los spans muestreados (comportamiento original).
+     * - coarse: solo se exporta el span raíz de cada operación; los hijos quedan
+     * como eventos suyos con la duración (ver TracingSpanProcessor).
+     * - off: no se registra el SDK y GlobalOpenTelemetry devuelve un Tracer no-op.
+     */
+    @Value("${auth.tracing.mode:full}")
+    private String mode;
+
+    /*
+     * Sampler de los spans raíz: always_on, ratio o parentbased_ratio.
+     * parentbased_ratio respeta la decisión de un padre remoto (traceparent) y
+     * aplica sampleRatio a las trazas que empiezan aquí.
+     */
+    @Value("${auth.tracing.sampler:parentbased_ratio}")
+    private String sampler;
+
+    @Value("${auth.tracing.sampleRatio:1.0}")
+    private double sampleRatio;
+
+    /*
+     * Graba también las trazas descartadas por el sampler y las exporta solo si
+     * acaban con error, para no perder los fallos con un sampleRatio bajo
+     */
+    @Value("${auth.tracing.errorBiased:false}")
+    private boolean errorBiased;
+
+    @Value("${auth.tracing.maxOpenTraces:10000}")
+    private int maxOpenTraces;
+
+    @Value("${auth.tracing.exporter.endpoint:http://localhost:4317}")
+    private String exporterEndpoint;
+
+    @Value("${auth.tracing.exporter.timeoutMs:10000}")
+    private long exporterTimeoutMs;
+
+    @Value("${auth.tracing.batch.scheduleDelayMs:1000}")
+    private long scheduleDelayMs;
+
+    @Value("${auth.tracing.batch.maxQueueSize:2048}")
+    private int maxQueueSize;
+
+    @Value("${auth.tracing.batch.maxExportBatchSize:512}")
+    private int maxExportBatchSize;
+
+    private SdkTracerProvider tracerProvider;
+    private OpenTelemetry openTelemetry = OpenTelemetry.noop();
+
     /*
      * 1. Creamos un exportador OTLP que enviará las trazas a Jaeger o Grafana.
      * 2. Creamos un BatchSpanProcessor para enviar los spans en lotes, con límite de tamaño y retraso configurables.
-     * 3. Creamos un Resource con metadatos del servicio (ej: service.name).
-     * 4. Creamos un SdkTracerProvider, agregando el BatchSpanProcessor y el Resource.
-     * 5. Creamos y registramos un OpenTelemetrySdk global para que cualquier clase pueda usarlo.
-     * 6. Obtenemos un Tracer global que se usará para crear spans en el código.
+     * 3. Lo envolvemos en TracingSpanProcessor, que aplica el modo coarse y el muestreo por error.
+     * 4. Creamos un Resource con metadatos del servicio (ej: service.name).
+     * 5. Creamos un SdkTracerProvider, agregando el procesador, el sampler y el Resource.
+     * 6. Creamos y registramos un OpenTelemetrySdk global para que cualquier clase pueda usarlo.
+     * 7. Publicamos el Tracer como bean (tracer()) para que TracingHelper lo reciba inyectado.
      */
     @PostConstruct
     public void initOpenTelemetry() {
 
+        String tracingMode = mode.trim().toLowerCase(Locale.ROOT);
+        if ("off".equals(tracingMode)) {
+            logger.info("OpenTelemetry desactivado (auth.tracing.mode=off)");
+            return;
+        }
+        boolean coarse = switch (tracingMode) {
+            case "full" -> false;
+            case "coarse" -> true;
+            default -> throw new IllegalStateException("auth.tracing.mode desconocido: " + mode);
+        };
+
         /*
          * Exportador OTLP: responsable de enviar los spans al collector.
          * Builder nos permite configurar el endpoint antes de crear la instancia final.
          */
         OtlpGrpcSpanExporter otlpExporter = OtlpGrpcSpanExporter.builder()
-                .setEndpoint(OTLP_ENDPOINT)
+                .setEndpoint(exporterEndpoint)
+                .setTimeout(Duration.ofMillis(exporterTimeoutMs))
                 .build();
 
         /*
@@ -48,12 +115,17 @@ public class OpenTelemetryConfig {
          * setScheduleDelay: tiempo de espera entre envíos.
          * setMaxQueueSize: máximo número de spans en cola.
          * setMaxExportBatchSize: máximo número de spans por lote.
+         * setExportUnsampledSpans: TracingSpanProcessor solo le pasa spans no
+         * muestreados cuando la traza terminó con error y hay que exportarla.
          */
-        BatchSpanProcessor spanProcessor = BatchSpanProcessor.builder(otlpExporter)
-                .setScheduleDelay(Duration.ofMillis(1000))
-                .setMaxQueueSize(2048)
-                .setMaxExportBatchSize(512)
+        BatchSpanProcessor batchProcessor = BatchSpanProcessor.builder(otlpExporter)
+                .setScheduleDelay(Duration.ofMillis(scheduleDelayMs))
+                .setMaxQueueSize(maxQueueSize)
+                .setMaxExportBatchSize(maxExportBatchSize)
+                .setExportUnsampledSpans(errorBiased)
                 .build();
+        TracingSpanProcessor spanProcessor = new TracingSpanProcessor(batchProcessor, coarse, errorBiased,
+                maxOpenTraces);
 
         /*
          * Resource: define metadatos del servicio.
@@ -68,32 +140,58 @@ public class OpenTelemetryConfig {
 
         /*
          * SdkTracerProvider: motor que gestiona la creación y exportación de spans.
-         * addSpanProcessor: agregamos el BatchSpanProcessor configurado.
+         * addSpanProcessor: agregamos el procesador configurado.
+         * setSampler: decide qué trazas se graban y cuáles se exportan.
          * setResource: asociamos los metadatos del servicio.
          */
-        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+        tracerProvider = SdkTracerProvider.builder()
                 .addSpanProcessor(spanProcessor)
+                .setSampler(new TracingSampler(rootSampler(), coarse, errorBiased))
                 .setResource(serviceResource)
                 .build();
 
         /*
          * OpenTelemetrySdk global: registro del SDK para que cualquier clase pueda obtener el Tracer.
          * setTracerProvider: asociamos nuestro TracerProvider.
-         * buildAndRegisterGlobal(): construye el SDK y lo registra globalmente.
+         * buildAndRegisterGlobal(): construye el SDK y lo registra globalmente, para
+         * librerías que usen GlobalOpenTelemetry. El código del servicio usa el bean.
          */
-        OpenTelemetrySdk.builder()
+        openTelemetry = OpenTelemetrySdk.builder()
                 .setTracerProvider(tracerProvider)
                 .buildAndRegisterGlobal();
 
-        /*
-         * Tracer global: objeto que usaremos para crear spans en cualquier parte del servicio.
-         * GlobalOpenTelemetry.getTracer(): obtiene un Tracer por nombre de servicio.
-         */
-        GlobalOpenTelemetry.getTracer(SERVICE_NAME);
-
         /*
          * Mensaje de confirmación de inicialización usando Logger
          */
-        logger.info("✅ OpenTelemetry inicializado para servicio: {}", SERVICE_NAME);
+        logger.info("✅ OpenTelemetry inicializado para servicio: {} (modo {}, sampler {} {}, errorBiased {}, endpoint {})",
+                SERVICE_NAME, tracingMode, sampler, sampleRatio, errorBiased, exporterEndpoint);
+    }
+
+    /*
+     * Tracer del servicio. Spring llama a este método cuando initOpenTelemetry ya
+     * se ha ejecutado; con auth.tracing.mode=off es el Tracer no-op.
+     */
+    @Bean
+    public Tracer tracer() {
+        return openTelemetry.getTracer(SERVICE_NAME);
+    }
+
+    private Sampler rootSampler() {
+        return switch (sampler.trim().toLowerCase(Locale.ROOT)) {
+            case "always_on" -> Sampler.alwaysOn();
+            case "ratio" -> Sampler.traceIdRatioBased(sampleRatio);
+            case "parentbased_ratio" -> Sampler.parentBased(Sampler.traceIdRatioBased(sampleRatio));
+            default -> throw new IllegalStateException("auth.tracing.sampler desconocido: " + sampler);
+        };
+    }
+
+    /*
+     * Al parar se exportan los spans que queden en la cola del BatchSpanProcessor
+     */
+    @PreDestroy
+    public void shutdownOpenTelemetry() {
+        if (tracerProvider != null) {
+            tracerProvider.close();
+        }
     }
 }
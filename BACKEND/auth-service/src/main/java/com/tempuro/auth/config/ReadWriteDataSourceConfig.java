@@ -0,0 +1,80 @@
+package com.tempuro.auth.config;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * Dos pools separados: escritura contra el primario y lectura contra una réplica
+ * Se activa con auth.datasource.routing.enabled=true; sin él se usa el DataSource
+ * único que crea Spring Boot.
+ * 1. El pool de escritura sale de spring.datasource.* y se ajusta con
+ * spring.datasource.hikari.*, igual que el de Spring Boot.
+ * 2. El de lectura usa auth.datasource.read.url (usuario y contraseña por defecto
+ * los del primario) y se ajusta con auth.datasource.read.hikari.*. Sus conexiones
+ * se abren en modo solo lectura.
+ * 3. La decisión la toma LazyConnectionDataSourceProxy según el flag read-only de la
+ * transacción: @Transactional(readOnly = true) marca la conexión como solo lectura
+ * antes de pedirla de verdad y el proxy la saca entonces del pool de lectura.
+ * Todo lo demás (sin transacción o read-write) va al primario.
+ * 4. El proxy además retrasa coger la conexión física hasta la primera sentencia
+ * SQL, así una transacción que aún no ha tocado la base de datos no ocupa pool.
+ * 5. Las métricas de cada pool salen en hikaricp.connections.* con el tag
+ * pool=auth-write o pool=auth-read.
+ *
+ * En local se puede probar con dos URL de H2, o con la misma base de datos H2 en
+ * modo fichero con AUTO_SERVER=TRUE para que las lecturas vean lo escrito.
+ */
+@Configuration
+@ConditionalOnProperty(name = "auth.datasource.routing.enabled", havingValue = "true")
+public class ReadWriteDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource writeDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName("auth-write");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("auth.datasource.read.hikari")
+    public HikariDataSource readDataSource(DataSourceProperties properties,
+            @Value("${auth.datasource.read.url}") String url,
+            @Value("${auth.datasource.read.username:${spring.datasource.username:}}") String username,
+            @Value("${auth.datasource.read.password:${spring.datasource.password:}}") String password) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+        dataSource.setPoolName("auth-read");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("writeDataSource") DataSource writeDataSource,
+            @Qualifier("readDataSource") DataSource readDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(writeDataSource);
+        dataSource.setReadOnlyDataSource(readDataSource);
+        return dataSource;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.tempuro.auth.config;
+
+import java.util.List;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+
+/*
+ * Sampler del servicio, lo configura OpenTelemetryConfig
+ * 1. Los spans raíz (sin padre o con padre remoto) los decide rootSampler:
+ * always_on, ratio o parentbased_ratio.
+ * 2. Los hijos locales siguen al padre: si el padre no se graba, el hijo tampoco.
+ * 3. En modo coarse los hijos se graban pero no se exportan (RECORD_ONLY):
+ * TracingSpanProcessor los convierte en eventos del span raíz.
+ * 4. Con errorBiased la traza que rootSampler descartaría se graba igualmente sin
+ * exportarla; TracingSpanProcessor solo la exporta si termina con error.
+ */
+final class TracingSampler implements Sampler {
+
+    private final Sampler rootSampler;
+    private final boolean coarse;
+    private final boolean errorBiased;
+
+    TracingSampler(Sampler rootSampler, boolean coarse, boolean errorBiased) {
+        this.rootSampler = rootSampler;
+        this.coarse = coarse;
+        this.errorBiased = errorBiased;
+    }
+
+    @Override
+    public SamplingResult shouldSample(Context parentContext, String traceId, String name, SpanKind spanKind,
+            Attributes attributes, List<LinkData> parentLinks) {
+        Span parent = Span.fromContext(parentContext);
+        SpanContext parentSpanContext = parent.getSpanContext();
+        if (parentSpanContext.isValid() && !parentSpanContext.isRemote()) {
+            if (!parent.isRecording()) {
+                return SamplingResult.drop();
+            }
+            return coarse || !parentSpanContext.isSampled()
+                    ? SamplingResult.recordOnly()
+                    : SamplingResult.recordAndSample();
+        }
+
+        SamplingResult result = rootSampler.shouldSample(parentContext, traceId, name, spanKind, attributes,
+                parentLinks);
+        if (errorBiased && result.getDecision() == SamplingDecision.DROP) {
+            return SamplingResult.recordOnly();
+        }
+        return result;
+    }
+
+    @Override
+    public String getDescription() {
+        return "TracingSampler{root=" + rootSampler.getDescription()
+                + ", coarse=" + coarse + ", errorBiased=" + errorBiased + "}";
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.tempuro.auth.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+
+import com.tempuro.auth.util.TracingHelper;
+
+/*
+ * Decide qué spans grabados llegan al BatchSpanProcessor (delegate)
+ * Trabaja junto a TracingSampler y lleva la cuenta de cada traza local, la que
+ * empieza en un span raíz de este servicio (normalmente el del controlador):
+ * 1. Spans muestreados: pasan tal cual.
+ * 2. Modo coarse: cada hijo, al terminar, se apunta como evento en el span raíz
+ * con su duración, y no se exporta por separado.
+ * 3. Modo errorBiased: los spans de una traza no muestreada se guardan hasta que
+ * termina el raíz; si alguno acabó con error se exporta la traza entera y si no
+ * se descarta.
+ * El número de trazas locales abiertas está acotado por maxTraces; de las que no
+ * caben solo se exporta el span raíz, y solo si está muestreado.
+ */
+final class TracingSpanProcessor implements SpanProcessor {
+
+    private static final AttributeKey<Double> DURATION_MS = AttributeKey.doubleKey("duration_ms");
+
+    private static final class LocalTrace {
+
+        private final ReadWriteSpan root;
+        private final List<ReadableSpan> children = new ArrayList<>();
+        private volatile boolean failed;
+
+        private LocalTrace(ReadWriteSpan root) {
+            this.root = root;
+        }
+
+        private synchronized void add(ReadableSpan span) {
+            children.add(span);
+        }
+
+        private synchronized List<ReadableSpan> children() {
+            return new ArrayList<>(children);
+        }
+    }
+
+    /*
+     * Clave: traceId. Dos peticiones con la misma traza remota a la vez solo
+     * registran la primera; la segunda se trata como si no cupiera.
+     */
+    private final Map<String, LocalTrace> traces = new ConcurrentHashMap<>();
+    private final SpanProcessor delegate;
+    private final boolean coarse;
+    private final boolean errorBiased;
+    private final int maxTraces;
+
+    TracingSpanProcessor(SpanProcessor delegate, boolean coarse, boolean errorBiased, int maxTraces) {
+        this.delegate = delegate;
+        this.coarse = coarse;
+        this.errorBiased = errorBiased;
+        this.maxTraces = maxTraces;
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+        if (isLocalRoot(span) && (coarse || (errorBiased && !span.getSpanContext().isSampled()))
+                && traces.size() < maxTraces) {
+            traces.putIfAbsent(span.getSpanContext().getTraceId(), new LocalTrace(span));
+        }
+        delegate.onStart(parentContext, span);
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return true;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        String traceId = span.getSpanContext().getTraceId();
+        if (!isLocalRoot(span)) {
+            onChildEnd(traces.get(traceId), span);
+            return;
+        }
+
+        LocalTrace trace = traces.get(traceId);
+        if (trace != null && trace.root == span) {
+            traces.remove(traceId);
+        } else {
+            trace = null;
+        }
+        if (span.getSpanContext().isSampled()) {
+            delegate.onEnd(span);
+        } else if (trace != null && (trace.failed || failed(span))) {
+            for (ReadableSpan child : trace.children()) {
+                delegate.onEnd(child);
+            }
+            delegate.onEnd(span);
+        }
+    }
+
+    private void onChildEnd(LocalTrace trace, ReadableSpan span) {
+        if (span.getSpanContext().isSampled()) {
+            delegate.onEnd(span);
+            return;
+        }
+        if (trace == null) {
+            return;
+        }
+        /*
+         * El atributo error del evento coarse es siempre el estado real del span;
+         * errorBiased solo decide si una traza no muestreada se exporta al final
+         */
+        boolean failed = failed(span);
+        if (failed && errorBiased) {
+            trace.failed = true;
+        }
+        if (coarse) {
+            trace.root.addEvent(span.getName(), Attributes.of(
+                    DURATION_MS, span.getLatencyNanos() / 1_000_000.0,
+                    TracingHelper.ERROR, failed));
+        } else {
+            trace.add(span);
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        traces.clear();
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    private static boolean isLocalRoot(ReadableSpan span) {
+        SpanContext parent = span.getParentSpanContext();
+        return !parent.isValid() || parent.isRemote();
+    }
+
+    /*
+     * ReadableSpan no expone el estado sin toSpanData(), que copia el span entero:
+     * el error se lee del atributo que pone TracingHelper.error junto al estado
+     */
+    private static boolean failed(ReadableSpan span) {
+        return Boolean.TRUE.equals(span.getAttribute(TracingHelper.ERROR));
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.tempuro.auth.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * Modo de hilos virtuales, opcional: spring.threads.virtual.enabled=true (Java 21)
+ * 1. Spring Boot ejecuta entonces las peticiones de Tomcat, los @Scheduled y los
+ * @Async en hilos virtuales: una petición bloqueada en JDBC ya no ocupa un hilo
+ * del sistema operativo.
+ * 2. BCrypt no cambia de sitio: PasswordHashingExecutor sigue con sus hilos de
+ * plataforma y su cola acotada, porque es cálculo puro y ahí los hilos virtuales
+ * no aportan nada. El hilo virtual de la petición simplemente espera su resultado.
+ * 3. Sin los 200 hilos de Tomcat el único límite de concurrencia contra la base
+ * de datos es el pool de Hikari. Por eso en este modo:
+ * - el pool crece a auth.db.virtualThreads.maximumPoolSize (20 por defecto, el
+ * doble de las 10 de Hikari): las peticiones que antes esperaban hilo en Tomcat
+ * ahora esperan conexión, y con el pool por defecto casi todas acabarían en timeout.
+ * Hay que dejar sitio en max_connections de MySQL para todas las réplicas.
+ * - se acorta connectionTimeout: bajo sobrecarga una petición falla pronto en vez
+ * de quedar aparcada junto a otras miles esperando conexión.
+ * Lo que esté configurado en spring.datasource.hikari.* (o en
+ * auth.datasource.read.hikari.* para el pool de lectura) se respeta.
+ * 4. Hikari 6 y Connector/J 9 usan ReentrantLock en lugar de synchronized, así que
+ * esperar una conexión o leer del socket no bloquea el hilo portador.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadsConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    private static final String WRITE_POOL_PREFIX = "spring.datasource.hikari.";
+    private static final String READ_POOL_PREFIX = "auth.datasource.read.hikari.";
+    private static final String READ_POOL_NAME = "auth-read";
+
+    /*
+     * static para que el post-processor se registre antes que el resto de beans
+     */
+    @Bean
+    static BeanPostProcessor virtualThreadsHikariTuning(Environment environment) {
+        long connectionTimeoutMs = environment.getProperty(
+                "auth.db.virtualThreads.connectionTimeoutMs", Long.class, 3000L);
+        int maximumPoolSize = environment.getProperty(
+                "auth.db.virtualThreads.maximumPoolSize", Integer.class, 20);
+
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource) {
+                    String prefix = READ_POOL_NAME.equals(dataSource.getPoolName()) ? READ_POOL_PREFIX : WRITE_POOL_PREFIX;
+                    if (!environment.containsProperty(prefix + "maximum-pool-size")) {
+                        dataSource.setMaximumPoolSize(maximumPoolSize);
+                    }
+                    if (!environment.containsProperty(prefix + "connection-timeout")) {
+                        dataSource.setConnectionTimeout(connectionTimeoutMs);
+                    }
+                    logger.info("Hilos virtuales activos: pool de {} conexiones como máximo y {} ms de espera",
+                            dataSource.getMaximumPoolSize(), dataSource.getConnectionTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+
+}
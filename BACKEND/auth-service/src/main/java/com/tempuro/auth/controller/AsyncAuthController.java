@@ -0,0 +1,97 @@
+package com.tempuro.auth.controller;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CookieValue;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.tempuro.auth.dto.LoginRequest;
+import com.tempuro.auth.dto.RegisterRequest;
+import com.tempuro.auth.security.LoginRateLimiter;
+import com.tempuro.auth.service.AuthService;
+import com.tempuro.auth.util.TracingHelper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.context.Context;
+import jakarta.servlet.http.HttpServletRequest;
+
+/*
+ * Variante asíncrona de AuthController, activa con el perfil "async"
+ * 1. Mismas rutas y mismas respuestas: cada endpoint delega en un AuthController
+ * que no es bean (con este perfil AuthController no se registra), así la lógica de
+ * errores, cookies y trazas no se duplica.
+ * 2. Devolver un CompletableFuture hace que Spring MVC use Servlet async: el hilo de
+ * Tomcat se libera y la respuesta se escribe cuando el futuro termina.
+ * 3. El refresh corre en authRequestExecutor, acotado a las conexiones de escritura
+ * libres; login y register, que esperan a BCrypt, en authLoginExecutor. Así un pico
+ * de logins no deja a los refresh en cola (AsyncAuthConfig). Si la cola del pool
+ * está llena se responde 503 + Retry-After.
+ * 4. El HttpServletRequest solo es válido en el hilo de Tomcat: lo que haga falta de
+ * él (la IP del cliente) se lee antes de encolar la tarea.
+ * 5. Los pools se envuelven con Context.taskWrapping: cada tarea corre con el
+ * contexto de OpenTelemetry del hilo que la encoló, así los spans de la petición
+ * cuelgan del padre que hubiera en lugar de empezar trazas sueltas.
+ */
+@RestController
+@RequestMapping("/auth")
+@Profile("async")
+public class AsyncAuthController {
+
+    private final AuthController delegate;
+    private final Executor authRequestExecutor;
+    private final Executor authLoginExecutor;
+    private final long retryAfterSeconds;
+
+    public AsyncAuthController(AuthService authService, LoginRateLimiter loginRateLimiter,
+            @Qualifier("authRequestExecutor") ThreadPoolExecutor authRequestExecutor,
+            @Qualifier("authLoginExecutor") ThreadPoolExecutor authLoginExecutor,
+            MeterRegistry meterRegistry, TracingHelper tracing,
+            @Value("${auth.async.retryAfterSeconds:1}") long retryAfterSeconds) {
+        this.delegate = new AuthController(authService, loginRateLimiter, meterRegistry, tracing);
+        this.authRequestExecutor = Context.taskWrapping(authRequestExecutor);
+        this.authLoginExecutor = Context.taskWrapping(authLoginExecutor);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @PostMapping("/login")
+    public CompletableFuture<ResponseEntity<Object>> login(@RequestBody LoginRequest loginRequest,
+            HttpServletRequest request) {
+        String clientIp = request.getRemoteAddr();
+        return submit(authLoginExecutor, () -> delegate.login(loginRequest, clientIp));
+    }
+
+    @PostMapping("/refresh")
+    public CompletableFuture<ResponseEntity<Object>> refresh(
+            @CookieValue(value = "refresh_token", required = false) String refreshToken) {
+        return submit(authRequestExecutor, () -> delegate.refresh(refreshToken));
+    }
+
+    @PostMapping("/register")
+    public CompletableFuture<ResponseEntity<Object>> register(@RequestBody RegisterRequest registerRequest) {
+        return submit(authLoginExecutor, () -> delegate.register(registerRequest));
+    }
+
+    private CompletableFuture<ResponseEntity<Object>> submit(Executor executor,
+            Supplier<ResponseEntity<Object>> handler) {
+        try {
+            return CompletableFuture.supplyAsync(handler, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body("Servicio saturado, inténtalo más tarde"));
+        }
+    }
+
+}
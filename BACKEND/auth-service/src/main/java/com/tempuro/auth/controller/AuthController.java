@@ -4,6 +4,7 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.LockedException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
@@ -15,16 +16,19 @@ import org.springframework.web.bind.annotation.RestController;
 import com.tempuro.auth.dto.LoginRequest;
 import com.tempuro.auth.dto.LoginResponse;
 import com.tempuro.auth.dto.RegisterRequest;
+import com.tempuro.auth.exception.EmailAlreadyRegisteredException;
 import com.tempuro.auth.exception.InvalidRefreshTokenException;
 import com.tempuro.auth.exception.JwtGenerationException;
+import com.tempuro.auth.exception.LoginRateLimitedException;
+import com.tempuro.auth.exception.PasswordHashingRejectedException;
 import com.tempuro.auth.exception.RefreshTokenNotFoundException;
+import com.tempuro.auth.security.LoginRateLimiter;
 import com.tempuro.auth.service.AuthService;
 import com.tempuro.auth.util.AuthCookieUtil;
-import io.opentelemetry.context.Scope;
-import io.opentelemetry.api.GlobalOpenTelemetry;
-import io.opentelemetry.api.trace.Span;
-import io.opentelemetry.api.trace.StatusCode;
-import io.opentelemetry.api.trace.Tracer;
+import com.tempuro.auth.util.TracingHelper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +42,11 @@ import org.slf4j.LoggerFactory;
  * Ejemplo: /auth/login, /auth/register, etc.
  */
 @RequestMapping("/auth")
+/*
+ * Con el perfil "async" estas rutas las registra AsyncAuthController,
+ * que reutiliza los métodos de esta clase
+ */
+@Profile("!async")
 /*
  * Habilita que otro dominio pueda hacer peticiones a este backend
  * En este caso, permite que http://localhost:5173 acceda a las rutas
@@ -46,8 +55,10 @@ import org.slf4j.LoggerFactory;
 public class AuthController {
 
     private final AuthService authService;
+    private final LoginRateLimiter loginRateLimiter;
+    private final MeterRegistry meterRegistry;
+    private final TracingHelper tracing;
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
-    private final Tracer tracer = GlobalOpenTelemetry.getTracer("auth-service");
 
     /*
      * El objeto Span representa una operación o unidad de trabajo que queremos
@@ -72,42 +83,79 @@ public class AuthController {
      * - try (Scope scope = ...): asegura que el span será el actual solo dentro del
      * bloque.
      * - span.end(): cierra el span y envía los datos a tu backend (OTLP/Jaeger).
+     *
+     * Los endpoints no repiten ese bloque: tracing.traced("nombre", span -> ...)
+     * de TracingHelper hace los cuatro pasos y pasa el span al código para poner
+     * el estado de error cuando la respuesta es un 4xx/5xx.
      */
 
     @PostMapping("/login")
-    public ResponseEntity<Object> login(@RequestBody LoginRequest loginRequest) {
-        Span span = tracer.spanBuilder("login-operation").startSpan();
-        try (Scope scope = span.makeCurrent()) {
-            LoginResponse loginResponse = authService.login(loginRequest);
-            ResponseCookie refreshCookie = AuthCookieUtil.buildRefreshCookie(loginResponse.getRefreshToken());
-
-            logger.info("Usuario con email: {} ha iniciado sesión correctamente", loginRequest.getEmail());
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.SET_COOKIE, refreshCookie.toString())
-                    .body(loginResponse);
-
-        } catch (BadCredentialsException | UsernameNotFoundException e) {
-            span.setStatus(StatusCode.ERROR, "Credenciales incorrectas");
-            return ResponseEntity.status(401).body("Credenciales incorrectas");
-        } catch (DisabledException e) {
-            span.setStatus(StatusCode.ERROR, "Usuario deshabilitado");
-            return ResponseEntity.status(403).body("Usuario deshabilitado");
-        } catch (LockedException e) {
-            span.setStatus(StatusCode.ERROR, "Usuario bloqueado");
-            return ResponseEntity.status(423).body("Usuario bloqueado");
-        } finally {
-            span.end();
-        }
+    public ResponseEntity<Object> login(@RequestBody LoginRequest loginRequest, HttpServletRequest request) {
+        return login(loginRequest, request.getRemoteAddr());
+    }
+
+    /*
+     * Recibe la IP ya leída: AsyncAuthController la saca de la petición en el hilo
+     * de Tomcat, porque el HttpServletRequest no se puede usar desde otro hilo
+     */
+    ResponseEntity<Object> login(LoginRequest loginRequest, String clientIp) {
+        return tracing.traced("login-operation", span -> {
+            try {
+                /*
+                 * El limitador va antes de AuthService: un intento rechazado no llega
+                 * a la base de datos ni al pool de hash. La IP es la que ve el servidor;
+                 * detrás de un proxy hay que activar server.forward-headers-strategy.
+                 */
+                loginRateLimiter.checkLogin(loginRequest.getEmail(), clientIp);
+                LoginResponse loginResponse = authService.login(loginRequest);
+                ResponseCookie refreshCookie = AuthCookieUtil.buildRefreshCookie(loginResponse.getRefreshToken());
+
+                logger.info("Usuario con email: {} ha iniciado sesión correctamente", loginRequest.getEmail());
+
+                return ResponseEntity.ok()
+                        .header(HttpHeaders.SET_COOKIE, refreshCookie.toString())
+                        .body(loginResponse);
+
+            } catch (BadCredentialsException | UsernameNotFoundException e) {
+                countFailure("login", e);
+                TracingHelper.error(span, "Credenciales incorrectas");
+                return ResponseEntity.status(401).body("Credenciales incorrectas");
+            } catch (DisabledException e) {
+                countFailure("login", e);
+                TracingHelper.error(span, "Usuario deshabilitado");
+                return ResponseEntity.status(403).body("Usuario deshabilitado");
+            } catch (LockedException e) {
+                countFailure("login", e);
+                TracingHelper.error(span, "Usuario bloqueado");
+                return ResponseEntity.status(423).body("Usuario bloqueado");
+            } catch (PasswordHashingRejectedException e) {
+                countFailure("login", e);
+                TracingHelper.error(span, "Pool de hash saturado");
+                return serviceUnavailable(e);
+            } catch (LoginRateLimitedException e) {
+                countFailure("login", e);
+                TracingHelper.error(span, "Demasiados intentos de login");
+                return ResponseEntity.status(429)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                        .body(e.getMessage());
+            } catch (RuntimeException e) {
+                /*
+                 * AuthenticationFailedException, JwtGenerationException... siguen
+                 * propagándose como antes; aquí solo se cuentan y TracingHelper
+                 * marca el span
+                 */
+                countFailure("login", e);
+                throw e;
+            }
+        });
     }
 
     @PostMapping("/refresh")
     public ResponseEntity<Object> refresh(@CookieValue(value = "refresh_token", required = false) String refreshToken) {
-        Span span = tracer.spanBuilder("refresh-operation").startSpan();
-        try (Scope scope = span.makeCurrent()) {
-
+        return tracing.traced("refresh-operation", span -> {
             if (refreshToken == null) {
-                span.setStatus(StatusCode.ERROR, "No refresh token in cookie");
+                countFailure("refresh", "MissingRefreshCookie");
+                TracingHelper.error(span, "No refresh token in cookie");
                 return ResponseEntity.status(401).body("No se encontró refresh token en la cookie");
             }
 
@@ -122,37 +170,70 @@ public class AuthController {
                         .body(loginResponse);
 
             } catch (RefreshTokenNotFoundException | InvalidRefreshTokenException | JwtGenerationException e) {
-                span.setStatus(StatusCode.ERROR, e.getMessage());
+                countFailure("refresh", e);
+                TracingHelper.error(span, e.getMessage());
                 return ResponseEntity.status(401).body(e.getMessage());
             }
-
-        } finally {
-            span.end();
-        }
+        });
     }
 
     @PostMapping("/register")
     public ResponseEntity<Object> register(@RequestBody RegisterRequest registerRequest) {
-        Span span = tracer.spanBuilder("register-operation").startSpan();
-        try (Scope scope = span.makeCurrent()) {
-
+        return tracing.traced("register-operation", span -> {
             try {
                 authService.register(registerRequest);
                 logger.info("Usuario {} registrado correctamente", registerRequest.getEmail());
                 return ResponseEntity.ok("Usuario registrado correctamente");
 
+            } catch (EmailAlreadyRegisteredException e) {
+                countFailure("register", e);
+                TracingHelper.error(span, e.getMessage());
+                return ResponseEntity.status(409).body(e.getMessage());
+
+            } catch (PasswordHashingRejectedException e) {
+                countFailure("register", e);
+                TracingHelper.error(span, "Pool de hash saturado");
+                return serviceUnavailable(e);
+
             } catch (IllegalArgumentException e) {
-                span.setStatus(StatusCode.ERROR, e.getMessage());
+                countFailure("register", e);
+                TracingHelper.error(span, e.getMessage());
                 return ResponseEntity.status(400).body("Error al registrar usuario: " + e.getMessage());
 
             } catch (Exception e) {
-                span.setStatus(StatusCode.ERROR, e.getMessage());
+                countFailure("register", e);
+                TracingHelper.error(span, e.getClass().getSimpleName());
                 logger.error("Error inesperado al registrar usuario {}", registerRequest.getEmail(), e);
                 return ResponseEntity.status(500).body("Error interno del servidor");
             }
+        });
+    }
 
-        } finally {
-            span.end();
-        }
+    /*
+     * Fallos por endpoint y tipo de excepción. La latencia por endpoint ya la mide
+     * http.server.requests, pero no ve las excepciones que aquí se convierten en
+     * respuestas 4xx/5xx. El registro reutiliza el Counter si ya existe.
+     */
+    private void countFailure(String endpoint, Exception e) {
+        countFailure(endpoint, e.getClass().getSimpleName());
+    }
+
+    private void countFailure(String endpoint, String exception) {
+        Counter.builder("auth.requests.failures")
+                .description("Peticiones de /auth fallidas por tipo de excepción")
+                .tag("endpoint", endpoint)
+                .tag("exception", exception)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /*
+     * 503 + Retry-After: el cliente sabe que debe reintentar más tarde
+     * y la petición se descarta sin haber calculado ningún hash
+     */
+    private ResponseEntity<Object> serviceUnavailable(PasswordHashingRejectedException e) {
+        return ResponseEntity.status(503)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.tempuro.auth.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/*
+ * Auditoría de intentos de login
+ * Cada fila resume los intentos de un email con un mismo resultado dentro de una
+ * ventana de LoginActivityRecorder: cuántos hubo, el primero y el último.
+ * Las filas las inserta LoginActivityRecorder con JDBC; la entidad sirve para
+ * que Hibernate cree la tabla y para consultarla.
+ */
+@Entity
+@Getter
+@Setter
+@ToString
+@Table(name = "login_audit", indexes = @Index(name = "idx_login_audit_email_last_at", columnList = "email, last_at"))
+public class LoginAudit {
+
+    public enum Outcome {
+        SUCCESS, BAD_CREDENTIALS, UNKNOWN_USER, DISABLED, ERROR
+    }
+
+    /*
+     * El email llega tal cual lo escribió quien intenta entrar, sin validar:
+     * LoginActivityRecorder lo recorta a este largo antes de apuntarlo
+     */
+    public static final int EMAIL_MAX_LENGTH = 255;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    /*
+     * null cuando el email no corresponde a ningún usuario
+     */
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "email", nullable = false, length = EMAIL_MAX_LENGTH)
+    private String email;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "outcome", nullable = false, length = 20)
+    private Outcome outcome;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "first_at", nullable = false)
+    private LocalDateTime firstAt;
+
+    @Column(name = "last_at", nullable = false)
+    private LocalDateTime lastAt;
+
+}
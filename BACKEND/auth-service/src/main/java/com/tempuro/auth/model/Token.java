@@ -1,19 +1,28 @@
 package com.tempuro.auth.model;
 
+import org.hibernate.Hibernate;
+
 import java.time.LocalDateTime;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import com.tempuro.auth.util.TokenHashUtil;
 
 @Entity
-@Data
-@Table(name = "tokens")
+@Getter
+@Setter
+@ToString
+@Table(name = "tokens", indexes = @Index(name = "uk_tokens_token_hash", columnList = "token_hash", unique = true))
 public class Token {
 
     @Id
@@ -30,9 +39,23 @@ public class Token {
     @Column(name = "user_id", updatable = false, insertable = false)
     private Long userId;
 
+    /*
+     * Columna antigua con el refresh JWT completo
+     * Ya no se escribe: solo la lee RefreshTokenHashMigration para calcular el hash
+     * de las filas que existían antes y vaciarla después
+     */
+    @ToString.Exclude
     @Column(name = "token")
     private String tokenValue;
 
+    /*
+     * SHA-256 en hexadecimal del refresh JWT (ver TokenHashUtil)
+     * Es lo único que se guarda del token y la búsqueda de /auth/refresh
+     * va por el índice único uk_tokens_token_hash
+     */
+    @Column(name = "token_hash", length = TokenHashUtil.HASH_LENGTH)
+    private String tokenHash;
+
     @Column(name = "expiry_date")
     private LocalDateTime expiryDate;
 
@@ -42,13 +65,40 @@ public class Token {
     @Column(name = "revoked", nullable = false)
     private boolean revoked = false;
 
+    /*
+     * Momento de la revocación (rotación o revocación de toda la familia)
+     * TokenCleanupJob lo usa para mantener los revocados un tiempo antes de borrarlos
+     */
+    @Column(name = "revoked_at")
+    private LocalDateTime revokedAt;
+
     /*
      * Relación ManyToOne con User
      * Indica que la columna user_id de tokens es la FK de esta tabla
      * JPA sabe cómo relacionar automáticamente tokens con usuarios usando ManyToOne
      */
+    @ToString.Exclude
     @ManyToOne
     @JoinColumn(name = "user_id")
     private User user;
 
+    /*
+     * Igualdad por id, igual que en User
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) {
+            return false;
+        }
+        return id != null && id.equals(((Token) o).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Hibernate.getClass(this).hashCode();
+    }
+
 }
@@ -1,13 +1,10 @@
 package com.tempuro.auth.model;
 
 import java.util.Set;
-import java.util.stream.Collectors;
 
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.DynamicUpdate;
 
-import java.util.Collection;
 import java.time.LocalDateTime;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -15,19 +12,39 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import lombok.*;
 
+/*
+ * Getter/Setter en lugar de @Data: el equals, hashCode y toString generados
+ * recorrían roles y tokens. Este User ya no es el principal de Spring Security,
+ * para eso está UserSnapshot.
+ *
+ * DynamicUpdate: el UPDATE de JPA solo lleva las columnas que han cambiado, así
+ * un save() de otra parte no pisa el last_login que vuelca LoginActivityRecorder.
+ */
 @Entity
-@Data
-@Table(name = "users")
+@DynamicUpdate
+@Getter
+@Setter
+@ToString
+@Table(name = "users", uniqueConstraints = @UniqueConstraint(name = User.UNIQUE_EMAIL_CONSTRAINT, columnNames = "email"),
+        indexes = @Index(name = "idx_users_tokens_revoked_at", columnList = "tokens_revoked_at"))
 @NoArgsConstructor
 @AllArgsConstructor
-public class User implements UserDetails {
+public class User {
+
+    /*
+     * Índice único sobre users.email
+     * Sirve tanto para buscar por email como para detectar registros duplicados
+     */
+    public static final String UNIQUE_EMAIL_CONSTRAINT = "uk_users_email";
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -37,9 +54,10 @@ public class User implements UserDetails {
     @Column(name = "username")
     private String username;
 
-    @Column(name = "email")
+    @Column(name = "email", nullable = false)
     private String email;
 
+    @ToString.Exclude
     @Column(name = "password")
     private String password;
 
@@ -55,16 +73,38 @@ public class User implements UserDetails {
     @Column(name = "last_login")
     private LocalDateTime lastLogin;
 
+    /*
+     * Última revocación de la familia de tokens del usuario (reutilización de un
+     * refresh token). En tokens.revoked_at no se distingue de una rotación normal,
+     * así que se guarda aquí para que RevocationIndex pueda reconstruir qué access
+     * tokens dejaron de valer al arrancar. Se escribe con un UPDATE directo
+     * (UserRepository.markTokensRevoked), sin pasar por los setters.
+     */
+    @Column(name = "tokens_revoked_at")
+    private LocalDateTime tokensRevokedAt;
+
+    /*
+     * Versión de los datos que usa el login (contraseña, roles y enabled)
+     * Sube cada vez que cambia alguno de ellos a través de sus setters, así
+     * UserDetailsCache sabe qué copia de un usuario es la más reciente
+     */
+    @Setter(AccessLevel.NONE)
+    @Column(name = "details_version", nullable = false)
+    private int detailsVersion;
+
     /*
      * Relación ManyToMany entre User y Role
      * 1. FetchType.EAGER: siempre carga los roles junto al usuario
      * 2. @JoinTable indica la tabla intermedia que relaciona users y roles
      * 3. joinColumns: columna de user_roles que apunta a User
      * 4. inverseJoinColumns: columna de user_roles que apunta a Role
+     * 5. Sin el modificador transient de Java: JPA ignora los campos transient,
+     * y entonces los roles ni se guardaban ni se cargaban
      */
+    @ToString.Exclude
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(name = "user_roles", joinColumns = @JoinColumn(name = "user_id"), inverseJoinColumns = @JoinColumn(name = "role_id"))
-    private transient Set<Role> roles;
+    private Set<Role> roles;
 
     /*
      * Relación OneToMany entre User y Token
@@ -72,53 +112,59 @@ public class User implements UserDetails {
      * la clase Token
      * 2. Permite obtener todos los tokens asociados a un usuario
      */
+    @ToString.Exclude
     @OneToMany(mappedBy = "user")
     private transient Set<Token> tokens;
 
     /*
-     * Implementación de UserDetails requerida por Spring Security
-     * 1. getAuthorities(): devuelve los roles del usuario como GrantedAuthority
-     * 2. Cada role se transforma en SimpleGrantedAuthority usando su nombre
-     * 3. Collectors.toSet(): devuelve un Set de authorities para Spring Security
-     */
-    @Override
-    public Collection<? extends GrantedAuthority> getAuthorities() {
-        return roles.stream()
-                .map(role -> new SimpleGrantedAuthority(role.getName()))
-                .collect(Collectors.toSet());
-    }
-
-    /*
-     * Metodos de UserDetails
+     * Setters de los campos de seguridad escritos a mano para subir detailsVersion.
+     * Hibernate accede a los campos directamente, así que cargar un User no la cambia.
      */
-    @Override
-    public String getPassword() {
-        return password;
+    public void setPassword(String password) {
+        this.password = password;
+        this.detailsVersion++;
     }
 
-    @Override
-    public String getUsername() {
-        return username;
+    public void setRoles(Set<Role> roles) {
+        this.roles = roles;
+        this.detailsVersion++;
     }
 
-    @Override
-    public boolean isAccountNonExpired() {
-        return true;
+    public void setIsEnabled(Boolean isEnabled) {
+        this.isEnabled = isEnabled;
+        this.detailsVersion++;
     }
 
-    @Override
-    public boolean isAccountNonLocked() {
-        return true;
+    /*
+     * enabled puede ser null en filas antiguas: solo cuenta como activo si es true
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(isEnabled);
     }
 
+    /*
+     * Igualdad por id, como recomienda Hibernate para entidades
+     * 1. No recorre roles ni tokens: comparar o meter un User en un Set no dispara
+     * cargas de colecciones.
+     * 2. Hibernate.getClass() resuelve los proxies lazy, y getId() no inicializa
+     * el proxy.
+     * 3. hashCode es constante por clase para que no cambie cuando un User nuevo
+     * recibe su id al guardarse.
+     */
     @Override
-    public boolean isCredentialsNonExpired() {
-        return true;
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) {
+            return false;
+        }
+        return id != null && id.equals(((User) o).getId());
     }
 
     @Override
-    public boolean isEnabled() {
-        return isEnabled;
+    public int hashCode() {
+        return Hibernate.getClass(this).hashCode();
     }
 
 }
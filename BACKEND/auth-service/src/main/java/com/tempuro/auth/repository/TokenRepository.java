@@ -2,10 +2,12 @@ package com.tempuro.auth.repository;
 
 import java.time.LocalDateTime;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import com.tempuro.auth.model.Token;
 import com.tempuro.auth.model.User;
 import java.util.List;
@@ -16,14 +18,60 @@ public interface TokenRepository extends JpaRepository<Token, Long> {
 
     List<Token> findAllByUserAndRevokedFalse(User user);
 
-    Optional<Token> findByTokenAndRevokedFalse(String token);
+    @Modifying
+    @Query("UPDATE Token t SET t.revoked = true, t.revokedAt = :now WHERE t.user = :user AND t.revoked = false")
+    int revokeAllUserTokens(User user, LocalDateTime now);
 
+    /*
+     * Revocación atómica del token usado en una rotación, buscando directamente
+     * por su hash. Devuelve 0 si no existe, ya estaba revocado (token reutilizado)
+     * o ha caducado, y solo entonces hace falta cargar la fila para saber qué pasó.
+     */
     @Modifying
-    @Query("UPDATE Token t SET t.revoked = true WHERE t.user = :user AND t.revoked = false")
-    void revokeAllUserTokens(User user);
+    @Query("UPDATE Token t SET t.revoked = true, t.revokedAt = :now"
+            + " WHERE t.tokenHash = :tokenHash AND t.revoked = false AND t.expiryDate > :now")
+    int revokeActiveByHash(String tokenHash, LocalDateTime now);
+
+    @Query("SELECT t.tokenHash FROM Token t WHERE t.user = :user AND t.revoked = false AND t.tokenHash IS NOT NULL")
+    List<String> findActiveHashesByUser(User user);
+
+    /*
+     * Carga inicial de RevocationIndex: revocados que todavía no han caducado
+     */
+    @Query("SELECT t.tokenHash FROM Token t WHERE t.revoked = true AND t.expiryDate > :now AND t.tokenHash IS NOT NULL")
+    List<String> findRevokedHashes(LocalDateTime now);
+
+    /*
+     * Limpieza por lotes (TokenCleanupJob)
+     * 1. Paginación por clave: cada lote empieza después del último id borrado,
+     * así la consulta recorre el índice de la PK y no usa OFFSET.
+     * 2. Solo devuelve ids, no carga entidades.
+     * 3. Los revocados se conservan hasta revokedBefore: la rotación necesita
+     * encontrarlos para detectar que alguien reutiliza un token ya usado.
+     */
+    @Query("SELECT t.id FROM Token t WHERE t.id > :lastId AND (t.expiryDate < :now"
+            + " OR (t.revoked = true AND (t.revokedAt IS NULL OR t.revokedAt < :revokedBefore))) ORDER BY t.id")
+    List<Long> findPurgeableIds(Long lastId, LocalDateTime now, LocalDateTime revokedBefore, Pageable pageable);
+
+    /*
+     * DELETE masivo de un lote, en su propia transacción corta
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Token t WHERE t.id IN :ids")
+    int deleteAllByIdIn(List<Long> ids);
+
+    /*
+     * Búsqueda de /auth/refresh por el hash SHA-256 del token (índice único)
+     */
+    Optional<Token> findByTokenHash(String tokenHash);
 
-    List<Token> findAllByExpiryDateBefore(LocalDateTime dateTime);
+    boolean existsByTokenHash(String tokenHash);
 
-    Optional<Token> findByToken(String refreshToken);
+    /*
+     * Filas anteriores al hash: tienen el JWT en la columna token y token_hash vacío
+     */
+    @Query("SELECT t FROM Token t WHERE t.tokenHash IS NULL AND t.tokenValue IS NOT NULL ORDER BY t.id")
+    List<Token> findLegacyTokens(Pageable pageable);
 
 }
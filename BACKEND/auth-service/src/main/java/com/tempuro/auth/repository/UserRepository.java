@@ -1,16 +1,82 @@
 package com.tempuro.auth.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import com.tempuro.auth.model.User;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
+
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
 
     /*
-     * El optional Devuelve un User si existe o un objeto vacío si no
+     * El optional Devuelve un User si existe o un objeto vacío si no.
+     * Con @EntityGraph los roles vienen en la misma consulta (LEFT JOIN): el EAGER
+     * solo, en una búsqueda por email, los pedía en un segundo SELECT
      */
+    @EntityGraph(attributePaths = "roles")
     Optional<User> findByEmail(String email);
 
+    /*
+     * Spring Data lo traduce a un SELECT ... LIMIT 1 sobre el índice de email,
+     * sin cargar el User ni su colección de roles
+     */
+    boolean existsByEmail(String email);
+
+    /*
+     * Emails de los usuarios con id mayor que afterId, en orden de id y sin cargar
+     * entidades. UnknownEmailCache lo recorre por páginas para cargar su filtro y
+     * luego para añadir los usuarios registrados desde otras réplicas
+     */
+    @Query("select u.id as id, u.email as email, u.createdAt as createdAt from User u"
+            + " where u.id > :afterId order by u.id")
+    List<EmailView> findEmailsAfter(Long afterId, Pageable pageable);
+
+    /*
+     * Huecos de id que UnknownEmailCache vuelve a buscar por si su transacción
+     * hizo commit más tarde
+     */
+    @Query("select u.id as id, u.email as email, u.createdAt as createdAt from User u where u.id in :ids")
+    List<EmailView> findEmailsByIdIn(Collection<Long> ids);
+
+    @Query("select coalesce(max(u.id), 0) from User u")
+    long findMaxId();
+
+    /*
+     * Marca la revocación de la familia de tokens de un usuario. Solo avanza:
+     * dos revocaciones seguidas dejan la más reciente
+     */
+    @Modifying
+    @Query("update User u set u.tokensRevokedAt = :revokedAt"
+            + " where u.id = :userId and (u.tokensRevokedAt is null or u.tokensRevokedAt < :revokedAt)")
+    int markTokensRevoked(Long userId, LocalDateTime revokedAt);
+
+    /*
+     * Carga de RevocationIndex: usuarios con una revocación de familia más reciente
+     * que since, la única que aún puede afectar a access tokens vivos
+     */
+    @Query("select u.id as id, u.tokensRevokedAt as tokensRevokedAt from User u where u.tokensRevokedAt > :since")
+    List<TokensRevokedView> findTokensRevokedSince(LocalDateTime since);
+
+    interface EmailView {
+        Long getId();
+
+        String getEmail();
+
+        LocalDateTime getCreatedAt();
+    }
+
+    interface TokensRevokedView {
+        Long getId();
+
+        LocalDateTime getTokensRevokedAt();
+    }
+
 }
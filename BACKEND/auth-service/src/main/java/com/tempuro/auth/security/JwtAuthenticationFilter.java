@@ -0,0 +1,129 @@
+package com.tempuro.auth.security;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/*
+ * Filtro que valida el access token de la cabecera Authorization: Bearer <jwt>
+ * 1. No toca la base de datos, el Authentication se monta con los claims del token.
+ * 2. Los tokens ya verificados se guardan en VerifiedTokenCache para no repetir
+ * la comprobación HMAC en cada petición de un mismo cliente.
+ * 3. Después se consulta RevocationIndex, que también es local, por si la familia
+ * de tokens del usuario se revocó después de emitir este access token.
+ * 4. Si el token falta o no es válido no cortamos la cadena: simplemente no hay
+ * Authentication y es authorizeHttpRequests quien decide si la ruta lo necesita.
+ *
+ * No se anota con @Component a propósito: Spring Boot registraría el filtro
+ * también en el contenedor de servlets y se ejecutaría dos veces.
+ * Se crea en SecurityConfig y solo vive dentro de la cadena de Spring Security.
+ */
+public class JwtAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final JwtUtils jwtUtils;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final RevocationIndex revocationIndex;
+
+    public JwtAuthenticationFilter(JwtUtils jwtUtils, VerifiedTokenCache verifiedTokenCache,
+            RevocationIndex revocationIndex) {
+        this.jwtUtils = jwtUtils;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.revocationIndex = revocationIndex;
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain) throws ServletException, IOException {
+
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            VerifiedToken verified = verify(header.substring(BEARER_PREFIX.length()));
+            if (verified != null) {
+                SecurityContext context = SecurityContextHolder.createEmptyContext();
+                context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                        verified, null, verified.authorities()));
+                SecurityContextHolder.setContext(context);
+            }
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    /*
+     * Las rutas de /auth son públicas y reciben refresh tokens, no access tokens
+     */
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return request.getServletPath().startsWith("/auth/");
+    }
+
+    /*
+     * La revocación se mira siempre, también con acierto en caché:
+     * la caché solo se ahorra la comprobación HMAC, no la de RevocationIndex
+     */
+    private VerifiedToken verify(String token) {
+        VerifiedToken verified = verifySignature(token);
+        if (verified == null || revocationIndex.isRevokedForUser(verified.userId(), verified.issuedAtSeconds())) {
+            return null;
+        }
+        return verified;
+    }
+
+    private VerifiedToken verifySignature(String token) {
+        VerifiedToken cached = verifiedTokenCache.get(token);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            Claims claims = jwtUtils.parseAccessToken(token);
+            Number userId = claims.get(JwtUtils.CLAIM_USER_ID, Number.class);
+            VerifiedToken verified = new VerifiedToken(
+                    claims.getSubject(),
+                    userId != null ? userId.longValue() : null,
+                    claims.getIssuedAt().getTime() / 1000,
+                    claims.getExpiration().getTime(),
+                    authoritiesFrom(claims));
+            verifiedTokenCache.put(token, verified);
+            return verified;
+        } catch (JwtException | IllegalArgumentException e) {
+            logger.debug("Access token rechazado: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * Los roles viajan en el claim "roles" como lista de nombres,
+     * así que las authorities se montan sin llamar a UserServiceImpl
+     */
+    private static Collection<GrantedAuthority> authoritiesFrom(Claims claims) {
+        Object roles = claims.get(JwtUtils.CLAIM_ROLES);
+        if (!(roles instanceof Collection<?> roleNames) || roleNames.isEmpty()) {
+            return List.of();
+        }
+        return RoleAuthorities.setOf(roleNames.stream()
+                .map(String::valueOf)
+                .toList());
+    }
+
+}
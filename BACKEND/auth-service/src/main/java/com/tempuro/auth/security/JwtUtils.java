@@ -1,20 +1,27 @@
 package com.tempuro.auth.security;
 
 import java.util.Date;
+import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PostConstruct;
+
 import java.nio.charset.StandardCharsets;
-import java.security.Key;
+import javax.crypto.SecretKey;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 
 /*
 * Component es el @ generico de Service, ambos son "lo mismo" pero service es mas específico
-* para decir que la clase contiene logica de caso de uso, pero tanto component como service 
-* meten la clase donde esten en el applicationContext 
+* para decir que la clase contiene logica de caso de uso, pero tanto component como service
+* meten la clase donde esten en el applicationContext
 */
 @Component
 public class JwtUtils {
@@ -31,8 +38,42 @@ public class JwtUtils {
     @Value("${jwt.secret}")
     private String key;
 
-    private Key getKey() {
-        return Keys.hmacShaKeyFor(key.getBytes(StandardCharsets.UTF_8));
+    /*
+     * La clave HMAC se deriva una sola vez al arrancar.
+     * SecretKey es inmutable, así que puede compartirse entre todos los hilos
+     * sin sincronización y nos ahorramos validar y copiar el secreto en cada login.
+     */
+    private SecretKey signingKey;
+
+    /*
+     * El parser de jjwt es inmutable y thread-safe una vez construido,
+     * así que también lo creamos una sola vez con la clave ya derivada
+     */
+    private JwtParser parser;
+
+    /*
+     * Claim "typ" para distinguir access de refresh, ya que ambos se firman con
+     * la misma clave. Sin esto un refresh token serviría como Bearer.
+     */
+    private static final String CLAIM_TYPE = "typ";
+    private static final String TYPE_ACCESS = "access";
+    private static final String TYPE_REFRESH = "refresh";
+
+    /*
+     * Claims propios del access token, con nombres cortos para que el JWT pese poco.
+     * Con ellos cualquier servicio conoce id y roles del usuario
+     * sin consultar la tabla users. Los tokens anteriores a una revocación se
+     * rechazan por su iat (RevocationIndex), no por una versión en el token.
+     */
+    public static final String CLAIM_USER_ID = "uid";
+    public static final String CLAIM_ROLES = "roles";
+
+    @PostConstruct
+    void initSigningKey() {
+        this.signingKey = Keys.hmacShaKeyFor(key.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
     }
 
     /*
@@ -48,22 +89,70 @@ public class JwtUtils {
      * 5. Firma con la clave secreta .signWith()
      * 6. Convertir a String
      */
-    public String generateAccessToken(String email) {
-        return Jwts.builder()
-                .setSubject(email)
-                .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + accessExpirationT))
-                .signWith(getKey(), SignatureAlgorithm.HS256)
+    public String generateAccessToken(UserSnapshot user) {
+        return buildToken(user.email(), TYPE_ACCESS, accessExpirationT)
+                .claim(CLAIM_USER_ID, user.id())
+                .claim(CLAIM_ROLES, user.roleNames())
                 .compact();
     }
 
+    /*
+     * El refresh token lleva un jti aleatorio: dos logins del mismo usuario en el
+     * mismo segundo darían si no el mismo JWT, y por tanto el mismo token_hash
+     */
     public String generateExpirationToken(String email) {
-        return Jwts.builder()
-                .setSubject(email)
-                .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + refreshExpirationT))
-                .signWith(getKey(), SignatureAlgorithm.HS256)
+        return buildToken(email, TYPE_REFRESH, refreshExpirationT)
+                .setId(UUID.randomUUID().toString())
                 .compact();
     }
 
+    /*
+     * Verifica firma y expiración de un access token y devuelve sus claims.
+     * No consulta la base de datos: todo lo necesario viaja dentro del token.
+     * Lanza JwtException si el token no es válido, ha caducado o es un refresh token.
+     */
+    public Claims parseAccessToken(String token) {
+        return parse(token, TYPE_ACCESS, false);
+    }
+
+    /*
+     * Igual para el refresh token: /auth/refresh comprueba firma y expiración
+     * antes de tocar la tabla tokens.
+     * Los refresh tokens emitidos antes del claim typ no lo llevan, y son los que
+     * RefreshTokenHashMigration pasó a token_hash. Se aceptan sin typ porque
+     * AuthService.refresh solo da por bueno un token cuyo hash tiene fila activa en
+     * tokens, y ahí nunca se ha guardado un access token. Un access token sin typ
+     * presentado como refresh no encuentra fila y se rechaza.
+     */
+    public Claims parseRefreshToken(String token) {
+        return parse(token, TYPE_REFRESH, true);
+    }
+
+    private Claims parse(String token, String expectedType, boolean allowLegacyUntyped) {
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        String type = claims.get(CLAIM_TYPE, String.class);
+        if (type == null && allowLegacyUntyped) {
+            return claims;
+        }
+        if (!expectedType.equals(type)) {
+            throw new JwtException("Tipo de token inesperado");
+        }
+        return claims;
+    }
+
+    /*
+     * Parte común de ambos tokens, solo cambia el tipo y la duración.
+     * El access token añade después sus claims propios antes de compact().
+     * Se toma la hora una sola vez para que iat y exp salgan del mismo instante.
+     */
+    private JwtBuilder buildToken(String subject, String type, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setSubject(subject)
+                .claim(CLAIM_TYPE, type)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + ttlMillis))
+                .signWith(signingKey, SignatureAlgorithm.HS256);
+    }
+
 }
@@ -0,0 +1,177 @@
+package com.tempuro.auth.security;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.tempuro.auth.exception.LoginRateLimitedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Limitador de intentos de login por email y por IP
+ * 1. Se comprueba en AuthController antes de llamar a AuthService, así un intento
+ * rechazado no cuesta ni una consulta ni un hash BCrypt.
+ * 2. Cada clave es un token bucket implementado como GCRA: un único AtomicLong con
+ * el "instante teórico de llegada" (TAT). Admitir una petición es un compareAndSet,
+ * sin locks. Se admiten capacity intentos de golpe y luego uno cada period/capacity.
+ * 3. Un bucket cuyo TAT ya pasó está lleno y equivale a no tenerlo, así que se borra
+ * en el barrido periódico. El barrido recorre todo el mapa y solo lo hace el
+ * scheduler, nunca el hilo de una petición. Borra con remove(clave, bucket) y
+ * acquire comprueba después del compareAndSet que su bucket sigue en el mapa: si
+ * el barrido lo quitó entre medias, el intento se repite con un bucket nuevo en
+ * lugar de perderse.
+ * 4. El mapa es un LRU acotado a maxKeys, como la caché de UnknownEmailCache: una
+ * clave nueva siempre entra y, si no cabe, sale la usada hace más tiempo. Llenar el
+ * mapa con emails inventados no bloquea a nadie; como mucho devuelve sus intentos a
+ * las claves más antiguas (auth.login.ratelimit.evicted cuenta las que aún estaban
+ * limitando).
+ *
+ * Métrica auth.login.ratelimit con tags key (ip/email) y decision (allowed/rejected)
+ */
+@Component
+public class LoginRateLimiter {
+
+    private final Bucket emailBuckets;
+    private final Bucket ipBuckets;
+    private final int maxKeys;
+
+    public LoginRateLimiter(
+            @Value("${security.rateLimit.email.capacity:5}") int emailCapacity,
+            @Value("${security.rateLimit.email.periodSeconds:60}") long emailPeriodSeconds,
+            @Value("${security.rateLimit.ip.capacity:20}") int ipCapacity,
+            @Value("${security.rateLimit.ip.periodSeconds:60}") long ipPeriodSeconds,
+            @Value("${security.rateLimit.maxKeys:100000}") int maxKeys,
+            MeterRegistry meterRegistry) {
+        this.maxKeys = maxKeys;
+        this.emailBuckets = new Bucket("email", emailCapacity, emailPeriodSeconds, meterRegistry);
+        this.ipBuckets = new Bucket("ip", ipCapacity, ipPeriodSeconds, meterRegistry);
+    }
+
+    /*
+     * Lanza LoginRateLimitedException si la IP o el email han agotado sus intentos
+     */
+    public void checkLogin(String email, String clientIp) {
+        long now = System.nanoTime();
+        if (clientIp != null) {
+            ipBuckets.acquire(clientIp, now);
+        }
+        if (email != null) {
+            emailBuckets.acquire(email.trim().toLowerCase(Locale.ROOT), now);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${security.rateLimit.sweepIntervalMs:60000}")
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        emailBuckets.evictIdle(now);
+        ipBuckets.evictIdle(now);
+    }
+
+    private final class Bucket {
+
+        private final Map<String, AtomicLong> theoreticalArrival;
+        private final long emissionIntervalNanos;
+        private final long burstWindowNanos;
+        private final Counter allowed;
+        private final Counter rejected;
+        private final Counter evicted;
+
+        Bucket(String keyType, int capacity, long periodSeconds, MeterRegistry meterRegistry) {
+            this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(periodSeconds) / capacity;
+            this.burstWindowNanos = emissionIntervalNanos * capacity;
+            this.allowed = decisionCounter(meterRegistry, keyType, "allowed");
+            this.rejected = decisionCounter(meterRegistry, keyType, "rejected");
+            this.evicted = Counter.builder("auth.login.ratelimit.evicted")
+                    .description("Buckets que aún limitaban expulsados del LRU por falta de sitio")
+                    .tag("key", keyType)
+                    .register(meterRegistry);
+            this.theoreticalArrival = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, AtomicLong> eldest) {
+                    if (size() <= maxKeys) {
+                        return false;
+                    }
+                    if (eldest.getValue().get() - System.nanoTime() > 0) {
+                        evicted.increment();
+                    }
+                    return true;
+                }
+            });
+            Gauge.builder("auth.login.ratelimit.keys", theoreticalArrival, Map::size)
+                    .description("Claves con bucket activo en el limitador de login")
+                    .tag("key", keyType)
+                    .register(meterRegistry);
+        }
+
+        void acquire(String key, long now) {
+            while (true) {
+                AtomicLong tat = theoreticalArrival.computeIfAbsent(key, k -> new AtomicLong(now));
+                consume(tat, now);
+                if (theoreticalArrival.get(key) == tat) {
+                    allowed.increment();
+                    return;
+                }
+                // El bucket salió del mapa (barrido o LRU) mientras se usaba: se repite con uno nuevo
+            }
+        }
+
+        /*
+         * Lanza LoginRateLimitedException si el bucket no admite la petición
+         */
+        private void consume(AtomicLong tat, long now) {
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + emissionIntervalNanos;
+                long waitNanos = next - now - burstWindowNanos;
+                if (waitNanos > 0) {
+                    rejected.increment();
+                    throw new LoginRateLimitedException("Demasiados intentos de login, inténtalo más tarde",
+                            Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L)));
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Primero se copian las claves inactivas con el lock del mapa y después se
+         * borran una a una con remove(clave, bucket), que no toca un bucket nuevo
+         * creado con la misma clave
+         */
+        void evictIdle(long now) {
+            List<Map.Entry<String, AtomicLong>> idle;
+            synchronized (theoreticalArrival) {
+                idle = theoreticalArrival.entrySet().stream()
+                        .filter(entry -> entry.getValue().get() - now <= 0)
+                        .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+                        .toList();
+            }
+            for (Map.Entry<String, AtomicLong> entry : idle) {
+                if (entry.getValue().get() - now <= 0) {
+                    theoreticalArrival.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private static Counter decisionCounter(MeterRegistry meterRegistry, String keyType, String decision) {
+            return Counter.builder("auth.login.ratelimit")
+                    .description("Decisiones del limitador de login")
+                    .tag("key", keyType)
+                    .tag("decision", decision)
+                    .register(meterRegistry);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.tempuro.auth.security;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/*
+ * Bus en memoria: entrega cada evento, en el mismo hilo, a todos los suscriptores
+ * de esta instancia. Con un solo nodo no hay nadie más a quien avisar, y en un
+ * test basta con compartir la misma instancia entre varios RevocationIndex para
+ * simular varias réplicas.
+ */
+@Component
+@ConditionalOnProperty(name = "tokens.revocation.bus", havingValue = "loopback", matchIfMissing = true)
+public class LoopbackRevocationEventBus implements RevocationEventBus {
+
+    private final List<Consumer<RevocationEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(RevocationEvent event) {
+        for (Consumer<RevocationEvent> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<RevocationEvent> listener) {
+        listeners.add(listener);
+    }
+
+}
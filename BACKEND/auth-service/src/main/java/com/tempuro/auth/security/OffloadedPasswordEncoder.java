@@ -0,0 +1,38 @@
+package com.tempuro.auth.security;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/*
+ * PasswordEncoder que delega en otro encoder pero ejecuta el trabajo caro
+ * (encode y matches) en el PasswordHashingExecutor en lugar del hilo de Tomcat.
+ * DaoAuthenticationProvider y AuthService.register lo usan sin enterarse del cambio.
+ */
+public class OffloadedPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final PasswordHashingExecutor hashingExecutor;
+
+    public OffloadedPasswordEncoder(PasswordEncoder delegate, PasswordHashingExecutor hashingExecutor) {
+        this.delegate = delegate;
+        this.hashingExecutor = hashingExecutor;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return hashingExecutor.execute(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return hashingExecutor.execute(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /*
+     * upgradeEncoding solo inspecciona el hash, no calcula nada: no hace falta el pool
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+}
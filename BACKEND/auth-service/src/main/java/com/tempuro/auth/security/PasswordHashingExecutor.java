@@ -0,0 +1,122 @@
+package com.tempuro.auth.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tempuro.auth.exception.PasswordHashingRejectedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * Pool dedicado para el trabajo de BCrypt (encode y matches)
+ * 1. Tiene tantos hilos como CPUs: BCrypt es puro cálculo, más hilos solo añaden cambios de contexto.
+ * 2. La cola está acotada. Si se llena rechazamos al momento con
+ * PasswordHashingRejectedException y el controlador responde 503 + Retry-After,
+ * en vez de dejar que los hilos de Tomcat se acumulen esperando.
+ * 3. Así una avalancha de logins no deja sin hilos a endpoints baratos como /auth/refresh.
+ * 4. Son hilos de plataforma también con spring.threads.virtual.enabled: el número
+ * de hashes simultáneos lo marcan las CPUs, no el número de peticiones.
+ *
+ * Métricas:
+ * - auth.hashing.queue.depth: tareas esperando en la cola
+ * - auth.hashing.duration: tiempo de cada hash en el hilo del pool
+ * - auth.hashing.rejected: peticiones rechazadas por cola llena
+ */
+@Component
+public class PasswordHashingExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+    private final Timer hashTimer;
+    private final Counter rejectedCounter;
+
+    public PasswordHashingExecutor(
+            @Value("${security.hashing.threads:0}") int threads,
+            @Value("${security.hashing.queueCapacity:64}") int queueCapacity,
+            @Value("${security.hashing.retryAfterSeconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new HashingThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        Gauge.builder("auth.hashing.queue.depth", executor, e -> e.getQueue().size())
+                .description("Tareas de hash de contraseña esperando en la cola")
+                .register(meterRegistry);
+        Gauge.builder("auth.hashing.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Hilos del pool calculando un hash")
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("auth.hashing.duration")
+                .description("Duración de cada operación de hash de contraseña")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("auth.hashing.rejected")
+                .description("Operaciones de hash rechazadas por cola llena")
+                .register(meterRegistry);
+    }
+
+    /*
+     * Ejecuta la tarea en el pool y espera el resultado en el hilo que llama.
+     * El hilo de la petición queda bloqueado, pero el número de hashes simultáneos
+     * nunca supera el tamaño del pool y el exceso se rechaza sin esperar.
+     */
+    public <T> T execute(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> hashTimer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new PasswordHashingRejectedException("Servidor ocupado, inténtalo más tarde", retryAfterSeconds);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Hash de contraseña interrumpido", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Error calculando hash de contraseña", cause);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /*
+     * Hilos de plataforma con nombre reconocible en los volcados de hilos
+     */
+    private static final class HashingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "password-hashing-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
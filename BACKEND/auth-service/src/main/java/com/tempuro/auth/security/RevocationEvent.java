@@ -0,0 +1,32 @@
+package com.tempuro.auth.security;
+
+import java.util.List;
+
+/*
+ * Evento que viaja por el RevocationEventBus entre réplicas de auth-service
+ * - TOKENS: hashes (token_hash) de refresh tokens revocados
+ * - USER: revocación de la familia de un usuario, con el instante en segundos
+ * - DETAILS: cambió la contraseña, los roles o enabled de un usuario; lleva su email
+ * y la detailsVersion nueva para que UserDetailsCache descarte copias anteriores
+ * origin identifica al nodo que lo publica para que no se lo aplique dos veces.
+ */
+public record RevocationEvent(String origin, Type type, List<String> tokenHashes, Long userId,
+        long revokedAtEpochSeconds, String email, int detailsVersion) {
+
+    public enum Type {
+        TOKENS, USER, DETAILS
+    }
+
+    public static RevocationEvent tokens(String origin, List<String> tokenHashes) {
+        return new RevocationEvent(origin, Type.TOKENS, List.copyOf(tokenHashes), null, 0L, null, 0);
+    }
+
+    public static RevocationEvent user(String origin, Long userId, long revokedAtEpochSeconds) {
+        return new RevocationEvent(origin, Type.USER, List.of(), userId, revokedAtEpochSeconds, null, 0);
+    }
+
+    public static RevocationEvent details(String origin, Long userId, String email, int detailsVersion) {
+        return new RevocationEvent(origin, Type.DETAILS, List.of(), userId, 0L, email, detailsVersion);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.tempuro.auth.security;
+
+import java.util.function.Consumer;
+
+/*
+ * SPI para propagar revocaciones entre réplicas de auth-service
+ * Cada nodo publica las revocaciones que hace y aplica en su RevocationIndex las
+ * que recibe de los demás, sin esperar a consultar MySQL. Por el mismo bus viajan
+ * los cambios de credenciales de un usuario, que invalidan su UserDetailsCache.
+ * La implementación se elige con tokens.revocation.bus:
+ * - loopback (por defecto): dentro de la JVM, para un solo nodo y para tests
+ * - udp: datagramas a una lista fija de nodos (UdpRevocationEventBus)
+ */
+public interface RevocationEventBus {
+
+    void publish(RevocationEvent event);
+
+    void subscribe(Consumer<RevocationEvent> listener);
+
+}
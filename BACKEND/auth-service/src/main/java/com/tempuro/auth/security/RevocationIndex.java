@@ -0,0 +1,269 @@
+package com.tempuro.auth.security;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.repository.UserRepository;
+import com.tempuro.auth.util.BloomFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * Índice local de revocaciones, consultado sin ir a la base de datos
+ * 1. Refresh tokens revocados: un filtro de Bloom delante de un Set exacto con sus
+ * hashes (token_hash). Si el Bloom dice que no, la respuesta es definitiva y no se
+ * mira nada más; si dice que sí, se confirma en el Set.
+ * 2. Access tokens: cuando se revoca la familia de un usuario se guarda el instante
+ * (en segundos, como el claim iat). Cualquier access token suyo emitido antes deja
+ * de valer. Estas entradas se descartan cuando ya no puede quedar ningún access
+ * token vivo anterior a ellas (jwt.accessExpiration).
+ * 3. Se reconstruye desde la base de datos al arrancar y después de cada limpieza de
+ * TokenCleanupJob, así el Bloom nunca acumula hashes de tokens ya borrados. Las
+ * revocaciones de familia salen de users.tokens_revoked_at: sin ellas un nodo
+ * recién arrancado aceptaría access tokens de una familia revocada antes.
+ * 4. Entre reconstrucciones se mantiene al día de forma incremental. Las
+ * revocaciones se aplican tras el commit: una revocación que llega mientras se
+ * reconstruye queda apuntada en pending y se añade al índice nuevo.
+ * 5. Las revocaciones locales se publican en el RevocationEventBus y las de las
+ * demás réplicas se aplican al recibirlas, así todos los nodos se enteran sin
+ * consultar MySQL. nodeId evita aplicarse dos veces los eventos propios.
+ *
+ * Métricas:
+ * - auth.revocation.bloom.bytes / auth.revocation.tokens / auth.revocation.users: memoria y tamaño
+ * - auth.revocation.bloom.fpp: tasa de falsos positivos esperada
+ * - auth.revocation.bloom.false_positives: el Bloom dijo que sí y el Set que no
+ */
+@Component
+public class RevocationIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationIndex.class);
+
+    private final TokenRepository tokenRepository;
+    private final UserRepository userRepository;
+    private final RevocationEventBus eventBus;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long expectedEntries;
+    private final double falsePositiveRate;
+    private final long accessTtlSeconds;
+
+    private final Map<Long, Long> userRevokedBefore = new ConcurrentHashMap<>();
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final Counter falsePositives;
+
+    private volatile State state;
+    private Set<String> pending;
+
+    public RevocationIndex(TokenRepository tokenRepository, UserRepository userRepository,
+            RevocationEventBus eventBus,
+            @Value("${tokens.revocation.expectedEntries:100000}") long expectedEntries,
+            @Value("${tokens.revocation.falsePositiveRate:0.01}") double falsePositiveRate,
+            @Value("${jwt.accessExpiration}") long accessExpirationMillis,
+            MeterRegistry meterRegistry) {
+        this.tokenRepository = tokenRepository;
+        this.userRepository = userRepository;
+        this.eventBus = eventBus;
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        this.accessTtlSeconds = accessExpirationMillis / 1000;
+        this.state = new State(new BloomFilter(expectedEntries, falsePositiveRate), ConcurrentHashMap.newKeySet());
+
+        Gauge.builder("auth.revocation.bloom.bytes", this, index -> index.state.bloom().sizeInBytes())
+                .description("Memoria del filtro de Bloom de tokens revocados")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("auth.revocation.bloom.fpp", this, index -> index.state.bloom().expectedFalsePositiveRate())
+                .description("Tasa de falsos positivos esperada del filtro de Bloom")
+                .register(meterRegistry);
+        Gauge.builder("auth.revocation.tokens", this, index -> index.state.digests().size())
+                .description("Refresh tokens revocados en el índice exacto")
+                .register(meterRegistry);
+        Gauge.builder("auth.revocation.users", userRevokedBefore, Map::size)
+                .description("Usuarios con access tokens revocados")
+                .register(meterRegistry);
+        this.falsePositives = Counter.builder("auth.revocation.bloom.false_positives")
+                .description("Consultas en las que el Bloom dio positivo y el índice exacto no")
+                .register(meterRegistry);
+    }
+
+    public boolean isTokenRevoked(String tokenHash) {
+        State current = state;
+        if (!current.bloom().mightContain(tokenHash)) {
+            return false;
+        }
+        if (current.digests().contains(tokenHash)) {
+            return true;
+        }
+        falsePositives.increment();
+        return false;
+    }
+
+    /*
+     * Un access token está revocado si su usuario tuvo una revocación de familia
+     * posterior a su emisión
+     */
+    public boolean isRevokedForUser(Long userId, long issuedAtEpochSeconds) {
+        if (userId == null) {
+            return false;
+        }
+        Long revokedBefore = userRevokedBefore.get(userId);
+        return revokedBefore != null && issuedAtEpochSeconds < revokedBefore;
+    }
+
+    public void revokeTokens(Collection<String> tokenHashes) {
+        if (tokenHashes.isEmpty()) {
+            return;
+        }
+        List<String> hashes = List.copyOf(tokenHashes);
+        afterCommit(() -> {
+            addTokens(hashes);
+            eventBus.publish(RevocationEvent.tokens(nodeId, hashes));
+        });
+    }
+
+    public void revokeUser(Long userId, Instant revokedAt) {
+        long revokedAtSeconds = revokedAt.getEpochSecond();
+        afterCommit(() -> {
+            userRevokedBefore.merge(userId, revokedAtSeconds, Math::max);
+            eventBus.publish(RevocationEvent.user(nodeId, userId, revokedAtSeconds));
+        });
+    }
+
+    @PostConstruct
+    void subscribe() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    /*
+     * Revocación hecha en otra réplica: ya está en su base de datos,
+     * aquí solo hay que reflejarla en memoria.
+     * Una revocación de usuario nunca se acepta con fecha futura: dejaría sin
+     * acceso al usuario hasta esa fecha aunque vuelva a hacer login.
+     */
+    private void onEvent(RevocationEvent event) {
+        if (nodeId.equals(event.origin())) {
+            return;
+        }
+        switch (event.type()) {
+            case TOKENS -> addTokens(event.tokenHashes());
+            case USER -> userRevokedBefore.merge(event.userId(),
+                    Math.min(event.revokedAtEpochSeconds(), Instant.now().getEpochSecond()), Math::max);
+            case DETAILS -> {
+                // Lo aplica UserDetailsCache
+            }
+        }
+    }
+
+    /*
+     * Reconstrucción completa desde la base de datos
+     * Solo hacen falta los revocados que aún no han caducado: un token caducado
+     * se rechaza de todas formas al validar el JWT.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        swapLock.writeLock().lock();
+        try {
+            pending = ConcurrentHashMap.newKeySet();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        List<String> revokedHashes = tokenRepository.findRevokedHashes(LocalDateTime.now());
+        BloomFilter bloom = new BloomFilter(Math.max(expectedEntries, revokedHashes.size() * 2L), falsePositiveRate);
+        Set<String> digests = ConcurrentHashMap.newKeySet(revokedHashes.size());
+        for (String hash : revokedHashes) {
+            bloom.put(hash);
+            digests.add(hash);
+        }
+
+        swapLock.writeLock().lock();
+        try {
+            State rebuilt = new State(bloom, digests);
+            pending.forEach(rebuilt::add);
+            state = rebuilt;
+            pending = null;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        /*
+         * Las entradas se fusionan con merge(max) igual que las del bus: una
+         * revocación aplicada en memoria mientras se consultaba no se pierde
+         */
+        long oldestRelevant = Instant.now().getEpochSecond() - accessTtlSeconds;
+        ZoneId zone = ZoneId.systemDefault();
+        List<UserRepository.TokensRevokedView> revokedUsers = userRepository.findTokensRevokedSince(
+                LocalDateTime.ofInstant(Instant.ofEpochSecond(oldestRelevant), zone));
+        for (UserRepository.TokensRevokedView revoked : revokedUsers) {
+            userRevokedBefore.merge(revoked.getId(),
+                    revoked.getTokensRevokedAt().atZone(zone).toEpochSecond(), Math::max);
+        }
+        userRevokedBefore.values().removeIf(revokedBefore -> revokedBefore < oldestRelevant);
+
+        logger.info("Índice de revocaciones reconstruido con {} refresh tokens y {} usuarios",
+                revokedHashes.size(), revokedUsers.size());
+    }
+
+    private void addTokens(Collection<String> tokenHashes) {
+        swapLock.readLock().lock();
+        try {
+            State current = state;
+            Set<String> rebuildPending = pending;
+            for (String hash : tokenHashes) {
+                current.add(hash);
+                if (rebuildPending != null) {
+                    rebuildPending.add(hash);
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Si hay una transacción en curso la revocación solo se aplica si hace commit,
+     * así el índice nunca contiene algo que la base de datos no tenga
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private record State(BloomFilter bloom, Set<String> digests) {
+
+        void add(String hash) {
+            digests.add(hash);
+            bloom.put(hash);
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.tempuro.auth.security;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/*
+ * Tabla de GrantedAuthority compartidas, una instancia por nombre de rol.
+ * Los roles son pocos y fijos, así que no tiene sentido crear un
+ * SimpleGrantedAuthority nuevo cada vez que se mapea un rol (User.getAuthorities,
+ * JwtAuthenticationFilter...). RoleCache la precarga al arrancar.
+ * Lo mismo con los conjuntos de authorities: casi todos los usuarios tienen la
+ * misma combinación de roles, así que todos comparten el mismo Set inmutable.
+ */
+public final class RoleAuthorities {
+
+    private static final Map<String, GrantedAuthority> AUTHORITIES = new ConcurrentHashMap<>();
+    private static final Map<Set<String>, Set<GrantedAuthority>> AUTHORITY_SETS = new ConcurrentHashMap<>();
+
+    // Clase de utilidad con métodos estáticos, no se instancia
+    private RoleAuthorities() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    public static GrantedAuthority of(String roleName) {
+        return AUTHORITIES.computeIfAbsent(roleName, SimpleGrantedAuthority::new);
+    }
+
+    /*
+     * Set inmutable y compartido con las authorities de esos roles.
+     * Se llama una vez al crear el principal, no en cada getAuthorities()
+     */
+    public static Set<GrantedAuthority> setOf(Collection<String> roleNames) {
+        return AUTHORITY_SETS.computeIfAbsent(Set.copyOf(roleNames), names -> names.stream()
+                .map(RoleAuthorities::of)
+                .collect(Collectors.toUnmodifiableSet()));
+    }
+
+}
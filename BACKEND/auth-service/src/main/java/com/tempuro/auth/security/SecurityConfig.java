@@ -1,15 +1,24 @@
 package com.tempuro.auth.security;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 
@@ -33,10 +42,33 @@ public class SecurityConfig {
      * la contraseña enviada por el usuario con la contraseña encriptada de la DB.
      * 3. Spring lo inyecta automáticamente en DaoAuthenticationProvider cuando
      * autentica.
+     * 4. DelegatingPasswordEncoder guarda el algoritmo como prefijo del hash
+     * ({bcrypt}..., {pbkdf2}...). Con security.password.encoder elegimos con cuál se
+     * codifica, y el coste (bcryptStrength / pbkdf2Iterations) también es configurable.
+     * 5. Los hashes antiguos sin prefijo se siguen validando como BCrypt.
+     * Si el hash tiene otro algoritmo o un coste menor, upgradeEncoding() lo detecta y
+     * DaoAuthenticationProvider lo recodifica al hacer login a través de
+     * UserServiceImpl.updatePassword (UserDetailsPasswordService).
+     * 6. Todo se envuelve en OffloadedPasswordEncoder para que el hash se calcule
+     * en el PasswordHashingExecutor, con hilos y cola acotados.
      */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(PasswordHashingExecutor hashingExecutor,
+            @Value("${security.password.encoder:bcrypt}") String encoderId,
+            @Value("${security.password.bcryptStrength:10}") int bcryptStrength,
+            @Value("${security.password.pbkdf2Iterations:310000}") int pbkdf2Iterations) {
+
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(bcryptStrength);
+
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put("bcrypt", bcrypt);
+        encoders.put("pbkdf2", new Pbkdf2PasswordEncoder("", 16, pbkdf2Iterations,
+                Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256));
+
+        DelegatingPasswordEncoder delegating = new DelegatingPasswordEncoder(encoderId, encoders);
+        delegating.setDefaultPasswordEncoderForMatches(bcrypt);
+
+        return new OffloadedPasswordEncoder(delegating, hashingExecutor);
     }
 
     /*
@@ -63,16 +95,31 @@ public class SecurityConfig {
      * 3. authorizeHttpRequests(): configuramos qué rutas son públicas y cuáles
      * necesitan autenticación
      * - /auth/**: permitimos todas las rutas de autenticación (login, register)
+     * - /actuator/health: las sondas del balanceador y de Kubernetes van sin token;
+     * sin autenticar solo devuelve el estado (UP/DOWN), no los detalles
+     * - /metrics y /actuator/prometheus: el scrape de Prometheus va sin token
      * - anyRequest().authenticated(): todas las demás rutas requieren estar
      * autenticado
+     * 4. addFilterBefore(): el JwtAuthenticationFilter valida el Bearer token antes
+     * que el filtro de usuario/contraseña, sin sesión ni base de datos
+     * 5. authenticationEntryPoint: sin token válido devolvemos 401 en lugar de 403
      */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtUtils jwtUtils,
+            VerifiedTokenCache verifiedTokenCache, RevocationIndex revocationIndex) throws Exception {
         http
                 .cors(Customizer.withDefaults())
                 .csrf(AbstractHttpConfigurer::disable)
                 .sessionManagement(session -> session
-                        .sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+                        .sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .authorizeHttpRequests(auth -> auth
+                        .requestMatchers("/auth/**", "/error", "/metrics", "/actuator/prometheus",
+                                "/actuator/health", "/actuator/health/**").permitAll()
+                        .anyRequest().authenticated())
+                .exceptionHandling(ex -> ex
+                        .authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)))
+                .addFilterBefore(new JwtAuthenticationFilter(jwtUtils, verifiedTokenCache, revocationIndex),
+                        UsernamePasswordAuthenticationFilter.class);
 
         return http.build();
     }
@@ -0,0 +1,228 @@
+package com.tempuro.auth.security;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/*
+ * Bus de revocaciones por UDP entre un conjunto fijo de nodos
+ * 1. Cada nodo escucha en tokens.revocation.udp.bindAddress:port y envía cada
+ * evento a todos los nodos de tokens.revocation.udp.peers (host:puerto separados
+ * por comas). Por defecto solo escucha en 127.0.0.1: para varias máquinas hay que
+ * indicar la IP de la red interna, nunca 0.0.0.0 en una interfaz pública.
+ * 2. Un datagrama por evento, sin conexiones ni broker: la propagación tarda lo
+ * que tarda la red, normalmente milisegundos.
+ * 3. UDP puede perder paquetes. No pasa nada grave: la base de datos sigue siendo
+ * la fuente de verdad (el UPDATE condicional de la rotación) y cada nodo se
+ * reconstruye desde ella al arrancar y tras cada limpieza.
+ * 4. Para probar varios nodos en una misma máquina basta con darles puertos
+ * distintos en localhost y listarse unos a otros como peers.
+ * 5. Un datagrama forjado podría bloquear a un usuario o llenar el índice de
+ * hashes, así que solo se aceptan los que:
+ * - llegan desde la dirección y el puerto de uno de los peers (cada nodo envía
+ * desde el mismo socket en el que escucha)
+ * - van firmados con HMAC-SHA256 con tokens.revocation.udp.sharedKey, la misma
+ * clave en todos los nodos y de al menos 32 bytes
+ * - tienen el formato esperado (hashes SHA-256 en hexadecimal)
+ * Además RevocationIndex nunca acepta una revocación de usuario en el futuro.
+ * Un datagrama repetido (replay) solo vuelve a aplicar una revocación que ya se
+ * aplicó, así que no hace falta más que la firma.
+ *
+ * Formato del datagrama (texto UTF-8):
+ * origin|TOKENS|hash1,hash2,...|firma   o   origin|USER|userId|segundos|firma
+ * o   origin|DETAILS|userId|detailsVersion|email|firma (el email va al final
+ * porque puede contener |; la firma se separa por el último)
+ */
+@Component
+@ConditionalOnProperty(name = "tokens.revocation.bus", havingValue = "udp")
+public class UdpRevocationEventBus implements RevocationEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(UdpRevocationEventBus.class);
+
+    // Hashes por datagrama: 500 x 65 bytes queda muy por debajo del límite de 64 KB
+    private static final int MAX_HASHES_PER_PACKET = 500;
+    private static final int MAX_PACKET_SIZE = 65_507;
+    private static final String SEPARATOR = "|";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+    private static final Pattern TOKEN_HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final DatagramSocket socket;
+    private final List<InetSocketAddress> peers;
+    private final Set<InetSocketAddress> trustedSenders;
+    private final SecretKeySpec signingKey;
+    private final List<Consumer<RevocationEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread receiver;
+
+    public UdpRevocationEventBus(
+            @Value("${tokens.revocation.udp.bindAddress:127.0.0.1}") String bindAddress,
+            @Value("${tokens.revocation.udp.port:7400}") int port,
+            @Value("${tokens.revocation.udp.peers:}") String peers,
+            @Value("${tokens.revocation.udp.sharedKey:}") String sharedKey) throws SocketException {
+        byte[] keyBytes = sharedKey.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length < MIN_KEY_BYTES) {
+            throw new IllegalStateException(
+                    "tokens.revocation.udp.sharedKey debe tener al menos " + MIN_KEY_BYTES + " bytes");
+        }
+        this.signingKey = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.peers = parsePeers(peers);
+        this.trustedSenders = Set.copyOf(this.peers);
+        this.socket = new DatagramSocket(new InetSocketAddress(bindAddress, port));
+        this.receiver = new Thread(this::receiveLoop, "revocation-udp-receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+        logger.info("Bus de revocaciones UDP escuchando en {}:{} con {} peers", bindAddress, port, this.peers.size());
+    }
+
+    @Override
+    public void publish(RevocationEvent event) {
+        if (event.type() == RevocationEvent.Type.TOKENS) {
+            List<String> hashes = event.tokenHashes();
+            for (int from = 0; from < hashes.size(); from += MAX_HASHES_PER_PACKET) {
+                List<String> chunk = hashes.subList(from, Math.min(hashes.size(), from + MAX_HASHES_PER_PACKET));
+                send(event.origin() + SEPARATOR + event.type() + SEPARATOR + String.join(",", chunk));
+            }
+        } else if (event.type() == RevocationEvent.Type.DETAILS) {
+            send(event.origin() + SEPARATOR + event.type() + SEPARATOR + event.userId()
+                    + SEPARATOR + event.detailsVersion() + SEPARATOR + event.email());
+        } else {
+            send(event.origin() + SEPARATOR + event.type() + SEPARATOR + event.userId()
+                    + SEPARATOR + event.revokedAtEpochSeconds());
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<RevocationEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @PreDestroy
+    void close() {
+        socket.close();
+    }
+
+    private void send(String message) {
+        byte[] payload = (message + SEPARATOR + sign(message)).getBytes(StandardCharsets.UTF_8);
+        for (InetSocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(payload, payload.length, peer));
+            } catch (IOException e) {
+                logger.warn("No se pudo enviar la revocación a {}: {}", peer, e.getMessage());
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                if (!trustedSenders.contains(packet.getSocketAddress())) {
+                    logger.warn("Revocación descartada: {} no es un peer", packet.getSocketAddress());
+                    continue;
+                }
+                String message = verify(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                if (message == null) {
+                    logger.warn("Revocación descartada: firma inválida desde {}", packet.getSocketAddress());
+                    continue;
+                }
+                RevocationEvent event = decode(message);
+                for (Consumer<RevocationEvent> listener : listeners) {
+                    listener.accept(event);
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("Error recibiendo revocación: {}", e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Revocación descartada por formato inválido: {}", e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Devuelve el mensaje sin la firma si esta es correcta, o null si no.
+     * MessageDigest.isEqual compara en tiempo constante.
+     */
+    private String verify(String payload) {
+        int separator = payload.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String message = payload.substring(0, separator);
+        byte[] expected = sign(message).getBytes(StandardCharsets.US_ASCII);
+        byte[] received = payload.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, received) ? message : null;
+    }
+
+    /*
+     * Mac no es thread-safe y publish() se llama desde los hilos de las peticiones:
+     * se crea uno por mensaje, que es barato comparado con el envío
+     */
+    private String sign(String message) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(signingKey);
+            return HexFormat.of().formatHex(mac.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no disponible en la JVM", e);
+        }
+    }
+
+    private static RevocationEvent decode(String message) {
+        String[] parts = message.split("\\|", 5);
+        RevocationEvent.Type type = RevocationEvent.Type.valueOf(parts[1]);
+        if (type == RevocationEvent.Type.TOKENS) {
+            List<String> hashes = Arrays.asList(parts[2].split(","));
+            if (hashes.size() > MAX_HASHES_PER_PACKET
+                    || !hashes.stream().allMatch(hash -> TOKEN_HASH.matcher(hash).matches())) {
+                throw new IllegalArgumentException("hashes de token inválidos");
+            }
+            return RevocationEvent.tokens(parts[0], hashes);
+        }
+        if (type == RevocationEvent.Type.DETAILS) {
+            return RevocationEvent.details(parts[0], Long.valueOf(parts[2]), parts[4], Integer.parseInt(parts[3]));
+        }
+        return RevocationEvent.user(parts[0], Long.valueOf(parts[2]), Long.parseLong(parts[3]));
+    }
+
+    private static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            String trimmed = peer.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            addresses.add(new InetSocketAddress(trimmed.substring(0, colon),
+                    Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return List.copyOf(addresses);
+    }
+
+}
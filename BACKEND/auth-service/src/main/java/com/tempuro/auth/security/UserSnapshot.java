@@ -0,0 +1,72 @@
+package com.tempuro.auth.security;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import com.tempuro.auth.model.Role;
+import com.tempuro.auth.model.User;
+
+/*
+ * Copia inmutable de los datos de un User que necesita la autenticación
+ * 1. Es lo que devuelve UserServiceImpl.loadUserByUsername y lo que guarda
+ * UserDetailsCache: al no ser una entidad JPA se puede compartir entre hilos y
+ * peticiones sin arrastrar la sesión de Hibernate ni colecciones lazy.
+ * 2. detailsVersion es la versión de User en el momento de la copia: la caché la
+ * usa para no sustituir una copia nueva por otra más antigua.
+ * 3. getUsername() devuelve el username igual que User; el email va en email().
+ * 4. Las authorities se calculan una sola vez al crear la copia y son el Set
+ * compartido de RoleAuthorities: Spring Security llama a getAuthorities() varias
+ * veces por autenticación y ninguna crea objetos.
+ */
+public record UserSnapshot(Long id, String email, String username, String password, boolean enabled,
+        List<String> roleNames, int detailsVersion, Set<GrantedAuthority> authorities) implements UserDetails {
+
+    public UserSnapshot {
+        roleNames = List.copyOf(roleNames);
+    }
+
+    public UserSnapshot(Long id, String email, String username, String password, boolean enabled,
+            List<String> roleNames, int detailsVersion) {
+        this(id, email, username, password, enabled, roleNames, detailsVersion, RoleAuthorities.setOf(roleNames));
+    }
+
+    public static UserSnapshot of(User user) {
+        return new UserSnapshot(user.getId(), user.getEmail(), user.getUsername(), user.getPassword(),
+                user.isEnabled(), user.getRoles().stream().map(Role::getName).toList(),
+                user.getDetailsVersion());
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * El hash de la contraseña no sale en logs ni en trazas
+     */
+    @Override
+    public String toString() {
+        return "UserSnapshot[id=" + id + ", email=" + email + ", roles=" + roleNames
+                + ", detailsVersion=" + detailsVersion + "]";
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.tempuro.auth.security;
+
+import java.util.Collection;
+
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.GrantedAuthority;
+
+/*
+ * Resultado de verificar un access token: lo mínimo que necesita el filtro
+ * para montar el Authentication sin volver a parsear ni consultar la base de datos.
+ * expiresAtMillis se guarda para que la caché pueda descartarlo cuando caduque el JWT.
+ * Se usa directamente como principal: getName() devuelve el email (subject)
+ * y userId queda disponibles para los controladores sin ir a la tabla users.
+ */
+public record VerifiedToken(String subject, Long userId, long issuedAtSeconds, long expiresAtMillis,
+        Collection<? extends GrantedAuthority> authorities) implements AuthenticatedPrincipal {
+
+    @Override
+    public String getName() {
+        return subject;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.tempuro.auth.security;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/*
+ * Caché de access tokens ya verificados.
+ * 1. La clave es el JWT completo, no solo la firma: así un atacante no puede
+ * reutilizar una firma válida pegada a otro payload.
+ * 2. Cada entrada caduca a la vez que su JWT, nunca se sirve un token expirado.
+ * 3. Es un LRU acotado a maxEntries, como la caché negativa de UnknownEmailCache:
+ * un token nuevo siempre entra y, si no cabe, sale el usado hace más tiempo. Los
+ * caducados que nadie vuelve a presentar acaban siendo los más antiguos y salen
+ * así, sin barrer el mapa en el hilo de la petición.
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private final Map<String, VerifiedToken> entries;
+
+    public VerifiedTokenCache(@Value("${jwt.verifiedCache.maxEntries:10000}") int maxEntries) {
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public VerifiedToken get(String token) {
+        VerifiedToken verified = entries.get(token);
+        if (verified == null) {
+            return null;
+        }
+        if (verified.isExpired(System.currentTimeMillis())) {
+            entries.remove(token, verified);
+            return null;
+        }
+        return verified;
+    }
+
+    public void put(String token, VerifiedToken verified) {
+        entries.put(token, verified);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+}
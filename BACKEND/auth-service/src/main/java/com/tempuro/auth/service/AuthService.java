@@ -1,10 +1,17 @@
 package com.tempuro.auth.service;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.DisabledException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -18,22 +25,26 @@ import com.tempuro.auth.exception.AuthenticationFailedException;
 import com.tempuro.auth.exception.EmailAlreadyRegisteredException;
 import com.tempuro.auth.exception.InvalidRefreshTokenException;
 import com.tempuro.auth.exception.JwtGenerationException;
+import com.tempuro.auth.exception.PasswordHashingRejectedException;
 import com.tempuro.auth.exception.RefreshTokenNotFoundException;
 import com.tempuro.auth.exception.TokenPersistenceException;
 import com.tempuro.auth.exception.UserNotFoundException;
 import com.tempuro.auth.exception.UserPersistenceException;
+import com.tempuro.auth.model.LoginAudit;
 import com.tempuro.auth.model.Role;
 import com.tempuro.auth.model.Token;
 import com.tempuro.auth.model.User;
-import com.tempuro.auth.repository.RoleRepository;
 import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.repository.UserRepository;
 import com.tempuro.auth.security.JwtUtils;
+import com.tempuro.auth.security.RevocationIndex;
+import com.tempuro.auth.security.UserSnapshot;
+import com.tempuro.auth.util.TokenHashUtil;
+import com.tempuro.auth.util.TracingHelper;
 
-import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.opentelemetry.api.trace.Span;
-import io.opentelemetry.api.trace.StatusCode;
-import io.opentelemetry.api.trace.Tracer;
-import io.opentelemetry.context.Scope;
 
 import lombok.RequiredArgsConstructor;
 
@@ -45,180 +56,290 @@ public class AuthService {
     private final JwtUtils jwtUtils;
     private final UserServiceImpl userService;
     private final TokenRepository tokenRepository;
+    private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
-    private final RoleRepository roleRepository;
-
-    private final Tracer tracer = GlobalOpenTelemetry.getTracer("auth-service");
-
-    @Transactional
+    private final RoleCache roleCache;
+    private final RevocationIndex revocationIndex;
+    private final UnknownEmailCache unknownEmailCache;
+    private final UserDetailsCache userDetailsCache;
+    private final RefreshTokenWriter refreshTokenWriter;
+    private final LoginActivityRecorder loginActivityRecorder;
+    private final MeterRegistry meterRegistry;
+    private final TracingHelper tracing;
+
+    private static final int REFRESH_TOKEN_TTL_DAYS = 30;
+
+    /*
+     * Sin @Transactional a propósito: una transacción abierta aquí cogería una
+     * conexión del pool al empezar y la retendría mientras la petición espera a
+     * BCrypt en PasswordHashingExecutor. La única escritura es el INSERT del refresh
+     * token, que hace RefreshTokenWriter (igual que updatePassword cuando hay que
+     * actualizar el hash). last_login y la auditoría no se escriben aquí: los
+     * apunta LoginActivityRecorder en memoria y los vuelca en batch.
+     */
     public LoginResponse login(LoginRequest loginRequest)
-            throws UserNotFoundException, JwtGenerationException, AuthenticationFailedException {
+            throws JwtGenerationException, AuthenticationFailedException {
 
-        Span span = tracer.spanBuilder("login-service").startSpan();
-        try (Scope scope = span.makeCurrent()) {
+        return tracing.traced("login-service", span -> {
 
-            Span authSpan = tracer.spanBuilder("authenticate-user").startSpan();
-            try (Scope authScope = authSpan.makeCurrent()) {
+            UserSnapshot user = tracing.traced("authenticate-user", authSpan -> {
                 Authentication auth = new UsernamePasswordAuthenticationToken(
                         loginRequest.getEmail(),
                         loginRequest.getPassword());
-                authManager.authenticate(auth);
-            } catch (Exception e) {
-                authSpan.setStatus(StatusCode.ERROR, "Error autenticando usuario");
-                throw new AuthenticationFailedException("Error autenticando usuario", e);
-            } finally {
-                authSpan.end();
-            }
-
-            Span tokenSpan = tracer.spanBuilder("generate-jwt-tokens").startSpan();
-            String accessJwt;
-            String refreshJwt;
-            try (Scope tokenScope = tokenSpan.makeCurrent()) {
-                accessJwt = jwtUtils.generateAccessToken(loginRequest.getEmail());
-                refreshJwt = jwtUtils.generateExpirationToken(loginRequest.getEmail());
-            } catch (Exception e) {
-                tokenSpan.setStatus(StatusCode.ERROR, "Error generando JWT");
-                throw new JwtGenerationException("Error generando JWT", e);
-            } finally {
-                tokenSpan.end();
-            }
-
-            Span userSpan = tracer.spanBuilder("fetch-user-from-db").startSpan();
-            User user;
-            try (Scope userScope = userSpan.makeCurrent()) {
-                user = userService.findByEmail(loginRequest.getEmail());
-                if (user == null) {
-                    throw new UserNotFoundException("Usuario no encontrado");
+                /*
+                 * authenticate() devuelve el Authentication ya validado y su principal es
+                 * el UserSnapshot que devolvió UserServiceImpl.loadUserByUsername, desde
+                 * UserDetailsCache o desde la base de datos.
+                 * Lo reutilizamos en lugar de volver a buscarlo por email: con la caché
+                 * caliente el único acceso a la base de datos del login es el insert
+                 * del refresh token.
+                 */
+                try {
+                    return (UserSnapshot) authManager.authenticate(auth).getPrincipal();
+                } catch (PasswordHashingRejectedException e) {
+                    throw e;
+                } catch (BadCredentialsException e) {
+                    userDetailsCache.invalidate(loginRequest.getEmail());
+                    loginActivityRecorder.loginFailed(loginRequest.getEmail(), LoginAudit.Outcome.BAD_CREDENTIALS);
+                    throw new AuthenticationFailedException("Error autenticando usuario", e);
+                } catch (Exception e) {
+                    loginActivityRecorder.loginFailed(loginRequest.getEmail(), failureOutcome(e));
+                    throw new AuthenticationFailedException("Error autenticando usuario", e);
                 }
-            } catch (Exception e) {
-                userSpan.setStatus(StatusCode.ERROR, "Error buscando usuario en DB");
-                throw e;
-            } finally {
-                userSpan.end();
-            }
-
-            Span tokenEntitySpan = tracer.spanBuilder("save-refresh-token").startSpan();
-            try (Scope tokenEntityScope = tokenEntitySpan.makeCurrent()) {
-                Token tokenEntity = new Token();
-                tokenEntity.setTokenValue(refreshJwt);
-                tokenEntity.setUser(user);
-                tokenEntity.setExpiryDate(LocalDateTime.now().plusDays(30));
-                tokenEntity.setCreatedAt(LocalDateTime.now());
-                tokenEntity.setRevoked(false);
-                tokenRepository.save(tokenEntity);
-            } catch (Exception e) {
-                tokenEntitySpan.setStatus(StatusCode.ERROR, "Error guardando refresh token");
-                throw new TokenPersistenceException("Error guardando refresh token", e);
-            } finally {
-                tokenEntitySpan.end();
-            }
-
-            return new LoginResponse(accessJwt, refreshJwt);
+            });
+
+            LoginResponse tokens = tracing.traced("generate-jwt-tokens", tokenSpan -> {
+                try {
+                    return new LoginResponse(jwtUtils.generateAccessToken(user),
+                            jwtUtils.generateExpirationToken(loginRequest.getEmail()));
+                } catch (Exception e) {
+                    throw new JwtGenerationException("Error generando JWT", e);
+                }
+            });
+
+            /*
+             * El INSERT del refresh token lo hace RefreshTokenWriter: según
+             * tokens.write.mode va directo o se agrupa con el de otros logins
+             */
+            tracing.tracedRun("save-refresh-token", tokenEntitySpan -> {
+                LocalDateTime now = LocalDateTime.now();
+                refreshTokenWriter.write(new RefreshTokenWriter.Row(TokenHashUtil.sha256Hex(tokens.getRefreshToken()),
+                        user.id(), now.plusDays(REFRESH_TOKEN_TTL_DAYS), now));
+            });
+
+            loginActivityRecorder.loginSucceeded(user.id(), user.email());
+            return tokens;
+        });
+    }
 
-        } finally {
-            span.end();
+    /*
+     * DaoAuthenticationProvider envuelve el UserNotFoundException de
+     * loadUserByUsername en un InternalAuthenticationServiceException
+     */
+    private static LoginAudit.Outcome failureOutcome(Exception e) {
+        if (e.getCause() instanceof UserNotFoundException) {
+            return LoginAudit.Outcome.UNKNOWN_USER;
         }
+        if (e instanceof DisabledException) {
+            return LoginAudit.Outcome.DISABLED;
+        }
+        return LoginAudit.Outcome.ERROR;
     }
 
-    @Transactional
+    /*
+     * No comprobamos antes si el email existe: el índice único uk_users_email
+     * lo detecta en el propio INSERT. Así nos ahorramos una consulta y dos registros
+     * simultáneos con el mismo email no pueden colarse entre la comprobación y el insert.
+     * Como en login, el método no es transaccional: el hash se calcula sin tener
+     * una conexión cogida y saveAndFlush hace el INSERT en su propia transacción.
+     */
     public void register(RegisterRequest request)
             throws EmailAlreadyRegisteredException, UserPersistenceException {
 
-        Span span = tracer.spanBuilder("register-service").startSpan();
-        try (Scope scope = span.makeCurrent()) {
+        tracing.tracedRun("register-service", span -> {
 
-            Span existsSpan = tracer.spanBuilder("check-email-existence").startSpan();
-            try (Scope existsScope = existsSpan.makeCurrent()) {
-                if (userService.existsByEmail(request.getEmail())) {
-                    throw new EmailAlreadyRegisteredException("El email ya está registrado");
-                }
-            } finally {
-                existsSpan.end();
-            }
-
-            Span roleSpan = tracer.spanBuilder("fetch-client-role").startSpan();
-            Role clientRole;
-            try (Scope roleScope = roleSpan.makeCurrent()) {
-                clientRole = roleRepository.findById(2L)
-                        .orElseThrow(() -> new RuntimeException("ROLE_CLIENT no existe en la base de datos"));
-            } finally {
-                roleSpan.end();
-            }
+            /*
+             * El rol se saca de RoleCache por nombre, sin consulta a la base de datos
+             * ni depender de que ROLE_CLIENT tenga el id 2
+             */
+            Role clientRole = roleCache.getByName(Role.ROLE_CLIENT);
 
             LocalDateTime now = LocalDateTime.now();
 
-            Span userSpan = tracer.spanBuilder("create-user-entity").startSpan();
-            User user;
-            try (Scope userScope = userSpan.makeCurrent()) {
-                user = new User();
-                user.setUsername(request.getUsername());
-                user.setEmail(request.getEmail());
-                user.setPassword(passwordEncoder.encode(request.getPassword()));
-                user.setCreatedAt(now);
-                user.setIsEnabled(true);
-                user.setUpdatedAt(now);
+            User user = tracing.traced("create-user-entity", userSpan -> {
+                User created = new User();
+                created.setUsername(request.getUsername());
+                created.setEmail(request.getEmail());
+                created.setPassword(passwordEncoder.encode(request.getPassword()));
+                created.setCreatedAt(now);
+                created.setIsEnabled(true);
+                created.setUpdatedAt(now);
 
                 Set<Role> roles = new HashSet<>();
                 roles.add(clientRole);
-                user.setRoles(roles);
-            } finally {
-                userSpan.end();
-            }
-
-            Span saveUserSpan = tracer.spanBuilder("save-user-to-db").startSpan();
-            try (Scope saveScope = saveUserSpan.makeCurrent()) {
-                userService.saveUser(user);
-            } catch (Exception e) {
-                saveUserSpan.setStatus(StatusCode.ERROR, "Error guardando usuario en DB");
-                throw new UserPersistenceException("Error guardando usuario en DB", e);
-            } finally {
-                saveUserSpan.end();
-            }
-
-        } finally {
-            span.end();
-        }
+                created.setRoles(roles);
+                return created;
+            });
+
+            tracing.tracedRun("save-user-to-db", saveUserSpan -> {
+                try {
+                    unknownEmailCache.registering(user.getEmail());
+                    userService.saveAndFlush(user);
+                    unknownEmailCache.registered(user.getEmail());
+                } catch (DataIntegrityViolationException e) {
+                    if (isDuplicateEmail(e)) {
+                        throw new EmailAlreadyRegisteredException("El email ya está registrado", e);
+                    }
+                    throw new UserPersistenceException("Error guardando usuario en DB", e);
+                } catch (Exception e) {
+                    throw new UserPersistenceException("Error guardando usuario en DB", e);
+                }
+            });
+        });
     }
 
-    @Transactional(readOnly = true)
+    /*
+     * Rotación de refresh tokens
+     * 1. Cada refresh revoca el token usado y entrega uno nuevo en la cookie,
+     * así un token robado solo sirve hasta que el usuario legítimo vuelva a refrescar.
+     * 2. Antes de tocar la base de datos se valida la firma del JWT y se consulta
+     * RevocationIndex: un token que el índice da por revocado va directo al caso de
+     * reutilización, y si no lo está no hace falta leer su fila.
+     * 3. La revocación es un UPDATE condicional por token_hash (revoked = false y sin
+     * caducar en el WHERE): si dos peticiones usan el mismo token a la vez, solo una
+     * lo consigue. Solo cuando el UPDATE no afecta a ninguna fila se carga el Token
+     * para saber si no existe, ha caducado o se está reutilizando.
+     * 4. Si llega un token ya revocado alguien lo está reutilizando: se revocan todos
+     * los tokens del usuario (su familia) con revokeAllUserTokens, se apunta el
+     * instante en users.tokens_revoked_at y se obliga a hacer login de nuevo.
+     * 5. Escrituras por refresh: un UPDATE y un INSERT, en la misma transacción.
+     * InvalidRefreshTokenException es checked, así que la transacción hace commit y
+     * la revocación de la familia se guarda aunque la petición falle.
+     */
+    @Transactional
     public LoginResponse refresh(String refreshToken)
             throws RefreshTokenNotFoundException, InvalidRefreshTokenException, JwtGenerationException {
 
-        Span span = tracer.spanBuilder("refresh-token-service").startSpan();
-        try (Scope scope = span.makeCurrent()) {
-
-            Span findTokenSpan = tracer.spanBuilder("find-refresh-token").startSpan();
-            Token authToken;
-            try (Scope findScope = findTokenSpan.makeCurrent()) {
-                authToken = tokenRepository.findByToken(refreshToken)
-                        .orElseThrow(() -> {
-                            findTokenSpan.setStatus(StatusCode.ERROR, "Refresh token no encontrado");
-                            return new RefreshTokenNotFoundException("Refresh token no encontrado");
-                        });
-            } finally {
-                findTokenSpan.end();
-            }
+        try (TracingHelper.TracedSpan traced = tracing.start("refresh-token-service")) {
+            Span span = traced.span();
 
-            if (authToken.isRevoked() || authToken.getExpiryDate().isBefore(LocalDateTime.now())) {
+            String email;
+            try {
+                email = jwtUtils.parseRefreshToken(refreshToken).getSubject();
+            } catch (JwtException | IllegalArgumentException e) {
+                TracingHelper.error(span, "Refresh token inválido");
                 throw new InvalidRefreshTokenException("Refresh token inválido o caducado");
             }
 
-            Span generateAccessSpan = tracer.spanBuilder("generate-access-jwt").startSpan();
-            String accessJwt;
-            try (Scope accessScope = generateAccessSpan.makeCurrent()) {
-                accessJwt = jwtUtils.generateAccessToken(authToken.getUser().getEmail());
-            } catch (Exception e) {
-                generateAccessSpan.setStatus(StatusCode.ERROR, "Error generando access token");
-                throw new JwtGenerationException("Error generando access token", e);
-            } finally {
-                generateAccessSpan.end();
+            String tokenHash = TokenHashUtil.sha256Hex(refreshToken);
+            LocalDateTime now = LocalDateTime.now();
+
+            boolean rotated = tracing.traced("rotate-refresh-token", rotateSpan -> {
+                boolean revoked = !revocationIndex.isTokenRevoked(tokenHash)
+                        && tokenRepository.revokeActiveByHash(tokenHash, now) == 1;
+                if (!revoked && refreshTokenWriter.awaitPending(tokenHash)) {
+                    // Emitido por un login cuya fila aún no estaba insertada (tokens.write.mode=wal)
+                    revoked = tokenRepository.revokeActiveByHash(tokenHash, now) == 1;
+                }
+                if (!revoked) {
+                    TracingHelper.error(rotateSpan, "Refresh token rechazado");
+                }
+                return revoked;
+            });
+            /*
+             * Fuera del span de rotación: rejectRefreshToken lanza dos excepciones
+             * checked y el bloque de traced() solo admite un tipo
+             */
+            if (!rotated) {
+                TracingHelper.error(span, "Refresh token rechazado");
+                rejectRefreshToken(tokenHash, now);
             }
+            revocationIndex.revokeTokens(List.of(tokenHash));
+
+            /*
+             * El refresh sí lee el usuario de la base de datos: es el punto donde el
+             * access token recoge roles y versión actuales. De paso se refresca la
+             * copia de UserDetailsCache si la de la caché es más antigua.
+             */
+            User user = userService.findByEmail(email);
+            UserSnapshot snapshot = UserSnapshot.of(user);
+            userDetailsCache.put(snapshot);
+
+            LoginResponse tokens = tracing.traced("generate-jwt-tokens", generateSpan -> {
+                try {
+                    return new LoginResponse(jwtUtils.generateAccessToken(snapshot),
+                            jwtUtils.generateExpirationToken(user.getEmail()));
+                } catch (Exception e) {
+                    throw new JwtGenerationException("Error generando JWT", e);
+                }
+            });
+
+            saveRefreshToken(user, tokens.getRefreshToken());
 
-            return new LoginResponse(accessJwt, null);
+            return tokens;
+        }
+    }
+
+    /*
+     * Camino poco frecuente: el token no se pudo rotar. Se carga su fila para
+     * decidir la respuesta y, si es una reutilización, se revoca la familia.
+     * Siempre lanza excepción.
+     */
+    private void rejectRefreshToken(String tokenHash, LocalDateTime now)
+            throws RefreshTokenNotFoundException, InvalidRefreshTokenException {
+
+        Token authToken = tokenRepository.findByTokenHash(tokenHash)
+                .orElseThrow(() -> new RefreshTokenNotFoundException("Refresh token no encontrado"));
+
+        if (authToken.isRevoked()) {
+            User user = authToken.getUser();
+            List<String> familyHashes = tokenRepository.findActiveHashesByUser(user);
+            tokenRepository.revokeAllUserTokens(user, now);
+            // Marca persistente: RevocationIndex.rebuild() la vuelve a cargar al arrancar
+            userRepository.markTokensRevoked(user.getId(), now);
+            revocationIndex.revokeTokens(familyHashes);
+            revocationIndex.revokeUser(user.getId(), now.atZone(ZoneId.systemDefault()).toInstant());
+        }
 
-        } finally {
-            span.end();
+        throw new InvalidRefreshTokenException("Refresh token inválido o caducado");
+    }
+
+    /*
+     * Guarda el refresh token recién emitido (solo su hash) al rotarlo en refresh.
+     * Se mide en el mismo timer que RefreshTokenWriter, con mode=jpa.
+     */
+    private void saveRefreshToken(User user, String refreshJwt) {
+        tracing.tracedRun("save-refresh-token", tokenEntitySpan -> {
+            LocalDateTime now = LocalDateTime.now();
+            Token tokenEntity = new Token();
+            tokenEntity.setTokenHash(TokenHashUtil.sha256Hex(refreshJwt));
+            tokenEntity.setUser(user);
+            tokenEntity.setExpiryDate(now.plusDays(REFRESH_TOKEN_TTL_DAYS));
+            tokenEntity.setCreatedAt(now);
+            tokenEntity.setRevoked(false);
+            try {
+                meterRegistry.timer("auth.tokens.insert", "mode", "jpa").record(() -> tokenRepository.save(tokenEntity));
+            } catch (Exception e) {
+                throw new TokenPersistenceException("Error guardando refresh token", e);
+            }
+        });
+    }
+
+    /*
+     * Hibernate expone el nombre de la constraint violada, así distinguimos
+     * el email duplicado de cualquier otro error de integridad
+     */
+    private static boolean isDuplicateEmail(DataIntegrityViolationException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof ConstraintViolationException violation) {
+                String constraintName = violation.getConstraintName();
+                return constraintName != null
+                        && constraintName.toLowerCase(Locale.ROOT).contains(User.UNIQUE_EMAIL_CONSTRAINT);
+            }
+            cause = cause.getCause();
         }
+        return false;
     }
 
 }
@@ -0,0 +1,181 @@
+package com.tempuro.auth.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tempuro.auth.model.LoginAudit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * Registro de actividad de login sin escribir en cada petición
+ * 1. El login solo apunta en memoria: el último acceso de cada usuario y un
+ * resumen de intentos por (email, resultado).
+ * 2. Cada flushIntervalMs se vuelca todo de una vez: un UPDATE en batch de
+ * users.last_login y un INSERT en batch en login_audit, cada uno en su propia
+ * transacción para que un fallo en la auditoría no deshaga los last_login.
+ * 3. Varios logins del mismo usuario dentro de la misma ventana acaban en una sola
+ * fila de cada: el UPDATE lleva el último instante y la auditoría el número de
+ * intentos, el primero y el último.
+ * 4. El UPDATE solo avanza last_login (WHERE last_login < ?), así dos réplicas que
+ * vuelcan a la vez no lo hacen retroceder.
+ * 5. El email de la auditoría se recorta a LoginAudit.EMAIL_MAX_LENGTH al apuntarlo:
+ * viene sin validar del cuerpo del login y uno demasiado largo haría fallar el lote.
+ * 6. Si un batch falla se repite fila a fila, así una fila mala solo se pierde ella.
+ * 7. La memoria está acotada por maxPending: lo que no cabe se descarta y se cuenta
+ * en auth.login.activity.dropped, igual que las filas que fallan al volcarse. Es
+ * información de actividad, no de seguridad.
+ */
+@Component
+public class LoginActivityRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoginActivityRecorder.class);
+
+    private static final String UPDATE_LAST_LOGIN_SQL = "UPDATE users SET last_login = ?"
+            + " WHERE id = ? AND (last_login IS NULL OR last_login < ?)";
+    private static final String INSERT_AUDIT_SQL = "INSERT INTO login_audit"
+            + " (user_id, email, outcome, attempts, first_at, last_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private record AuditKey(String email, LoginAudit.Outcome outcome) {
+    }
+
+    private record AuditEntry(Long userId, int attempts, LocalDateTime firstAt, LocalDateTime lastAt) {
+
+        AuditEntry merge(AuditEntry other) {
+            return new AuditEntry(userId != null ? userId : other.userId, attempts + other.attempts,
+                    firstAt.isBefore(other.firstAt) ? firstAt : other.firstAt,
+                    lastAt.isAfter(other.lastAt) ? lastAt : other.lastAt);
+        }
+    }
+
+    private final Map<Long, LocalDateTime> lastLogins = new ConcurrentHashMap<>();
+    private final Map<AuditKey, AuditEntry> audit = new ConcurrentHashMap<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxPending;
+    private final Counter dropped;
+
+    public LoginActivityRecorder(JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${auth.loginActivity.maxPending:100000}") int maxPending) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxPending = maxPending;
+        this.dropped = Counter.builder("auth.login.activity.dropped")
+                .description("Intentos de login no registrados: buffer lleno o fallo al volcarlos")
+                .register(meterRegistry);
+    }
+
+    public void loginSucceeded(long userId, String email) {
+        LocalDateTime now = LocalDateTime.now();
+        if (lastLogins.size() < maxPending || lastLogins.containsKey(userId)) {
+            lastLogins.merge(userId, now, (current, candidate) -> candidate.isAfter(current) ? candidate : current);
+        } else {
+            dropped.increment();
+        }
+        recordAttempt(userId, email, LoginAudit.Outcome.SUCCESS, now);
+    }
+
+    public void loginFailed(String email, LoginAudit.Outcome outcome) {
+        if (email != null) {
+            recordAttempt(null, email, outcome, LocalDateTime.now());
+        }
+    }
+
+    private void recordAttempt(Long userId, String email, LoginAudit.Outcome outcome, LocalDateTime now) {
+        String normalized = email.trim().toLowerCase(Locale.ROOT);
+        if (normalized.length() > LoginAudit.EMAIL_MAX_LENGTH) {
+            normalized = normalized.substring(0, LoginAudit.EMAIL_MAX_LENGTH);
+        }
+        AuditKey key = new AuditKey(normalized, outcome);
+        if (audit.size() >= maxPending && !audit.containsKey(key)) {
+            dropped.increment();
+            return;
+        }
+        audit.merge(key, new AuditEntry(userId, 1, now, now), AuditEntry::merge);
+    }
+
+    /*
+     * Se sacan las entradas del mapa una a una con remove(): un login que llegue
+     * durante el volcado se queda para la siguiente ventana en lugar de perderse
+     */
+    @Scheduled(initialDelayString = "${auth.loginActivity.flushIntervalMs:5000}",
+            fixedDelayString = "${auth.loginActivity.flushIntervalMs:5000}")
+    public void flush() {
+        List<Object[]> lastLoginRows = new ArrayList<>();
+        for (Long userId : lastLogins.keySet()) {
+            LocalDateTime lastLogin = lastLogins.remove(userId);
+            if (lastLogin != null) {
+                Timestamp at = Timestamp.valueOf(lastLogin);
+                lastLoginRows.add(new Object[] { at, userId, at });
+            }
+        }
+        List<Object[]> auditRows = new ArrayList<>();
+        for (AuditKey key : audit.keySet()) {
+            AuditEntry entry = audit.remove(key);
+            if (entry != null) {
+                auditRows.add(new Object[] { entry.userId(), key.email(), key.outcome().name(), entry.attempts(),
+                        Timestamp.valueOf(entry.firstAt()), Timestamp.valueOf(entry.lastAt()) });
+            }
+        }
+        if (lastLoginRows.isEmpty() && auditRows.isEmpty()) {
+            return;
+        }
+
+        write(UPDATE_LAST_LOGIN_SQL, lastLoginRows, "last_login");
+        write(INSERT_AUDIT_SQL, auditRows, "login_audit");
+    }
+
+    /*
+     * Primero todo el lote en una transacción; si falla, fila a fila, cada una en
+     * la suya. Si lo que falla es la conexión, fallarán todas y se pierde la ventana
+     */
+    private void write(String sql, List<Object[]> rows, String table) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(sql, rows));
+            return;
+        } catch (RuntimeException e) {
+            logger.warn("Falló el volcado en batch de {} filas en {}, se repite fila a fila: {}",
+                    rows.size(), table, e.getMessage());
+        }
+        int failed = 0;
+        for (Object[] row : rows) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update(sql, row));
+            } catch (RuntimeException e) {
+                failed++;
+                logger.debug("Fila de {} descartada", table, e);
+            }
+        }
+        if (failed > 0) {
+            dropped.increment(failed);
+            logger.warn("No se pudieron volcar {} de {} filas en {}", failed, rows.size(), table);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.tempuro.auth.service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.tempuro.auth.model.Token;
+import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.util.TokenHashUtil;
+
+/*
+ * Migración de los refresh tokens guardados antes de token_hash
+ * 1. Al arrancar busca filas con el JWT en la columna token y sin hash.
+ * 2. Calcula el hash, lo guarda en token_hash y vacía la columna token,
+ * así el JWT en claro deja de estar en la base de datos.
+ * 3. Trabaja por lotes, cada uno en su propia transacción corta, para no
+ * bloquear la tabla aunque haya muchas filas antiguas.
+ * 4. Antes de los jti, dos logins en el mismo segundo podían generar el mismo
+ * JWT. Esas filas repetidas chocarían con el índice único, así que se borran:
+ * la primera fila sigue sirviendo para ese token.
+ * Es idempotente: cuando ya no quedan filas antiguas no hace nada.
+ */
+@Component
+public class RefreshTokenHashMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenHashMigration.class);
+
+    private final TokenRepository tokenRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public RefreshTokenHashMigration(TokenRepository tokenRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${tokens.hashMigration.batchSize:500}") int batchSize) {
+        this.tokenRepository = tokenRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateLegacyTokens() {
+        int migrated = 0;
+        int processed;
+        do {
+            Integer batch = transactionTemplate.execute(status -> migrateBatch());
+            processed = batch != null ? batch : 0;
+            migrated += processed;
+        } while (processed == batchSize);
+
+        if (migrated > 0) {
+            logger.info("Migrados {} refresh tokens antiguos a token_hash", migrated);
+        }
+    }
+
+    private int migrateBatch() {
+        List<Token> legacyTokens = tokenRepository.findLegacyTokens(PageRequest.of(0, batchSize));
+        Set<String> batchHashes = new HashSet<>();
+
+        for (Token token : legacyTokens) {
+            String hash = TokenHashUtil.sha256Hex(token.getTokenValue());
+            if (!batchHashes.add(hash) || tokenRepository.existsByTokenHash(hash)) {
+                tokenRepository.delete(token);
+                continue;
+            }
+            token.setTokenHash(hash);
+            token.setTokenValue(null);
+        }
+        tokenRepository.flush();
+        return legacyTokens.size();
+    }
+
+}
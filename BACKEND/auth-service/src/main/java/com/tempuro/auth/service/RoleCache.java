@@ -0,0 +1,81 @@
+package com.tempuro.auth.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.tempuro.auth.model.Role;
+import com.tempuro.auth.repository.RoleRepository;
+import com.tempuro.auth.security.RoleAuthorities;
+
+import jakarta.annotation.PostConstruct;
+
+/*
+ * Caché de la tabla roles
+ * 1. Los roles son datos de referencia que casi nunca cambian, así que se cargan
+ * una vez al arrancar y se consultan en memoria por nombre o por id.
+ * 2. Se guarda un snapshot inmutable en un campo volatile: las lecturas no se
+ * bloquean y la recarga lo sustituye de golpe.
+ * 3. Si se pide un rol que no está (por ejemplo creado después del arranque)
+ * se busca con RoleRepository.findByName y se añade.
+ * 4. invalidate() recarga todo desde la base de datos si se modifican los roles.
+ */
+@Component
+public class RoleCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoleCache.class);
+
+    private final RoleRepository roleRepository;
+
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), Map.of());
+
+    public RoleCache(RoleRepository roleRepository) {
+        this.roleRepository = roleRepository;
+    }
+
+    @PostConstruct
+    public void invalidate() {
+        List<Role> roles = roleRepository.findAll();
+        Map<String, Role> byName = new HashMap<>();
+        Map<Long, Role> byId = new HashMap<>();
+        for (Role role : roles) {
+            byName.put(role.getName(), role);
+            byId.put(role.getId(), role);
+            RoleAuthorities.of(role.getName());
+        }
+        this.snapshot = new Snapshot(Map.copyOf(byName), Map.copyOf(byId));
+        logger.info("Caché de roles cargada con {} roles", roles.size());
+    }
+
+    public Role getByName(String roleName) {
+        Role role = snapshot.byName().get(roleName);
+        if (role != null) {
+            return role;
+        }
+        role = roleRepository.findByName(roleName)
+                .orElseThrow(() -> new IllegalStateException(roleName + " no existe en la base de datos"));
+        add(role);
+        return role;
+    }
+
+    public Role getById(Long roleId) {
+        return snapshot.byId().get(roleId);
+    }
+
+    private synchronized void add(Role role) {
+        Map<String, Role> byName = new HashMap<>(snapshot.byName());
+        Map<Long, Role> byId = new HashMap<>(snapshot.byId());
+        byName.put(role.getName(), role);
+        byId.put(role.getId(), role);
+        RoleAuthorities.of(role.getName());
+        this.snapshot = new Snapshot(Map.copyOf(byName), Map.copyOf(byId));
+    }
+
+    private record Snapshot(Map<String, Role> byName, Map<Long, Role> byId) {
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.tempuro.auth.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.security.RevocationIndex;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Tarea programada que borra refresh tokens caducados o revocados
+ * 1. Cada login inserta una fila en tokens y nadie las borraba, la tabla crecía sin límite.
+ * 2. Borra por lotes de tamaño fijo (tokens.cleanup.batchSize) con paginación por id,
+ * cada lote es un DELETE corto en su propia transacción y nunca mantiene bloqueos largos.
+ * 3. Entre lote y lote espera tokens.cleanup.pauseMs para no saturar la base de datos.
+ * 4. Los revocados se guardan tokens.cleanup.revokedRetentionHours desde su revocación,
+ * para que la rotación pueda detectar la reutilización de un token ya usado.
+ * 5. Si ha borrado algo reconstruye RevocationIndex para soltar los hashes borrados.
+ *
+ * Métricas:
+ * - auth.tokens.purged: filas borradas
+ * - auth.tokens.purge.batch: duración de cada lote (SELECT de ids + DELETE)
+ */
+@Component
+public class TokenCleanupJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenCleanupJob.class);
+
+    private final TokenRepository tokenRepository;
+    private final RevocationIndex revocationIndex;
+    private final int batchSize;
+    private final long pauseMs;
+    private final Duration revokedRetention;
+    private final Counter purgedCounter;
+    private final Timer batchTimer;
+
+    public TokenCleanupJob(TokenRepository tokenRepository, RevocationIndex revocationIndex,
+            @Value("${tokens.cleanup.batchSize:1000}") int batchSize,
+            @Value("${tokens.cleanup.pauseMs:200}") long pauseMs,
+            @Value("${tokens.cleanup.revokedRetentionHours:24}") long revokedRetentionHours,
+            MeterRegistry meterRegistry) {
+        this.tokenRepository = tokenRepository;
+        this.revocationIndex = revocationIndex;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.revokedRetention = Duration.ofHours(revokedRetentionHours);
+        this.purgedCounter = Counter.builder("auth.tokens.purged")
+                .description("Refresh tokens caducados o revocados borrados")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("auth.tokens.purge.batch")
+                .description("Duración de cada lote de borrado de refresh tokens")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${tokens.cleanup.initialDelayMs:60000}",
+            fixedDelayString = "${tokens.cleanup.intervalMs:3600000}")
+    public void purgeExpiredTokens() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime revokedBefore = now.minus(revokedRetention);
+        long lastId = 0L;
+        long purged = 0L;
+
+        while (true) {
+            Timer.Sample sample = Timer.start();
+            List<Long> ids = tokenRepository.findPurgeableIds(lastId, now, revokedBefore, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            int deleted = tokenRepository.deleteAllByIdIn(ids);
+            sample.stop(batchTimer);
+
+            purgedCounter.increment(deleted);
+            purged += deleted;
+            lastId = ids.get(ids.size() - 1);
+
+            if (ids.size() < batchSize || !pause()) {
+                break;
+            }
+        }
+
+        if (purged > 0) {
+            logger.info("Limpieza de refresh tokens: {} filas borradas", purged);
+            revocationIndex.rebuild();
+        }
+    }
+
+    /*
+     * Devuelve false si el hilo se interrumpe (apagado de la aplicación)
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.tempuro.auth.service;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tempuro.auth.repository.UserRepository;
+import com.tempuro.auth.util.BloomFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Caché negativa de emails que no existen
+ * 1. Cuando loadUserByUsername no encuentra un email se apunta aquí durante un TTL
+ * corto, así los reintentos con un email mal escrito o de un ataque de diccionario
+ * no vuelven a consultar la tabla users.
+ * 2. Opcionalmente hay delante un filtro de Bloom con todos los emails registrados,
+ * cargado al arrancar. Si el Bloom dice que un email no está, es seguro (no hay
+ * falsos negativos) y ni siquiera hace falta la primera consulta.
+ * 3. Al registrar un usuario su email se añade al Bloom antes del INSERT
+ * (registering) y se borra de la caché negativa cuando el INSERT ya es visible
+ * (registered). Si el INSERT falla el email se queda en el Bloom, que solo cuesta
+ * una consulta de más. Un contador de invalidaciones evita que una búsqueda que
+ * empezó antes del registro vuelva a meter el email como desconocido.
+ * 4. Los registros hechos en otras réplicas no pasan por registered() de este nodo.
+ * Cada syncIntervalMs se leen los usuarios con id mayor que el último visto: sus
+ * emails se añaden al Bloom y se quitan de la caché negativa. Un usuario recién
+ * registrado en otra réplica puede ser rechazado aquí como mucho durante ese
+ * intervalo.
+ * 5. Los ids no se hacen visibles en orden: una transacción que tomó el id 10 puede
+ * hacer commit después de otra que tomó el 11. Cuando el recorrido salta ids junto
+ * a un usuario reciente, esos huecos se apuntan y se vuelven a buscar en cada
+ * sincronización durante gapTimeoutSeconds. Pasado ese tiempo el hueco se da por
+ * definitivo (un INSERT que falló también consume id en MySQL).
+ * 6. La caché negativa es un LRU acotado a maxEntries: al llenarse sale el email
+ * usado hace más tiempo, sin recorrer el mapa en el hilo de la petición.
+ * 7. Las claves van en minúsculas, igual que compara la columna email con la
+ * collation por defecto de MySQL.
+ */
+@Component
+public class UnknownEmailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnknownEmailCache.class);
+
+    private final Map<String, Long> unknownUntil;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final long ttlNanos;
+
+    private final UserRepository userRepository;
+
+    /*
+     * null si el Bloom está desactivado. Solo se consulta cuando bloomReady es true:
+     * mientras se carga le faltan emails y daría falsos negativos
+     */
+    private final BloomFilter registeredEmails;
+    private volatile boolean bloomReady;
+    private final int loadBatchSize;
+
+    private volatile long lastSeenId;
+    private volatile boolean syncing;
+
+    /*
+     * Ids saltados por el recorrido que aún pueden aparecer, con su plazo en
+     * nanoTime. Solo se usa desde los métodos synchronized de la sincronización
+     */
+    private final Map<Long, Long> idGaps = new HashMap<>();
+    private final long gapTimeoutNanos;
+
+    private final Counter cacheHits;
+    private final Counter bloomHits;
+
+    public UnknownEmailCache(UserRepository userRepository,
+            MeterRegistry meterRegistry,
+            @Value("${auth.unknownEmailCache.ttlSeconds:60}") long ttlSeconds,
+            @Value("${auth.unknownEmailCache.maxEntries:10000}") int maxEntries,
+            @Value("${auth.unknownEmailCache.bloom.enabled:false}") boolean bloomEnabled,
+            @Value("${auth.unknownEmailCache.bloom.expectedEntries:1000000}") long bloomExpectedEntries,
+            @Value("${auth.unknownEmailCache.bloom.falsePositiveRate:0.01}") double bloomFalsePositiveRate,
+            @Value("${auth.unknownEmailCache.loadBatchSize:5000}") int loadBatchSize,
+            @Value("${auth.unknownEmailCache.gapTimeoutSeconds:60}") long gapTimeoutSeconds) {
+        this.userRepository = userRepository;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.gapTimeoutNanos = TimeUnit.SECONDS.toNanos(gapTimeoutSeconds);
+        this.unknownUntil = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        this.registeredEmails = bloomEnabled ? new BloomFilter(bloomExpectedEntries, bloomFalsePositiveRate) : null;
+        this.loadBatchSize = loadBatchSize;
+
+        this.cacheHits = Counter.builder("auth.users.unknown")
+                .description("Logins con email desconocido resueltos sin consultar la base de datos")
+                .tag("source", "cache")
+                .register(meterRegistry);
+        this.bloomHits = Counter.builder("auth.users.unknown")
+                .description("Logins con email desconocido resueltos sin consultar la base de datos")
+                .tag("source", "bloom")
+                .register(meterRegistry);
+        Gauge.builder("auth.users.unknown.cache.size", unknownUntil, Map::size)
+                .description("Emails desconocidos en la caché negativa")
+                .register(meterRegistry);
+    }
+
+    /*
+     * Carga el Bloom por páginas de id, leyendo solo la columna email.
+     * Sin Bloom basta con saber el último id para sincronizar a partir de ahí
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRegisteredEmails() {
+        if (registeredEmails == null) {
+            lastSeenId = userRepository.findMaxId();
+        } else {
+            loadUsersAfterLastSeenId();
+            bloomReady = true;
+            logger.info("Filtro de emails registrados cargado con {} emails ({} bytes)",
+                    registeredEmails.insertions(), registeredEmails.sizeInBytes());
+        }
+        syncing = true;
+    }
+
+    @Scheduled(initialDelayString = "${auth.unknownEmailCache.syncIntervalMs:1000}",
+            fixedDelayString = "${auth.unknownEmailCache.syncIntervalMs:1000}")
+    public void syncRegisteredEmails() {
+        if (syncing) {
+            loadUsersAfterLastSeenId();
+            recheckGaps();
+        }
+    }
+
+    /*
+     * Un hueco solo se apunta si el usuario que lo sigue es reciente: junto a
+     * usuarios antiguos el hueco es un usuario borrado, no una transacción en curso
+     */
+    private synchronized void loadUsersAfterLastSeenId() {
+        List<UserRepository.EmailView> page;
+        do {
+            page = userRepository.findEmailsAfter(lastSeenId, PageRequest.of(0, loadBatchSize));
+            if (page.isEmpty()) {
+                return;
+            }
+            invalidations.incrementAndGet();
+            long now = System.nanoTime();
+            LocalDateTime recent = LocalDateTime.now().minusNanos(gapTimeoutNanos);
+            for (UserRepository.EmailView user : page) {
+                if (user.getCreatedAt() != null && user.getCreatedAt().isAfter(recent)) {
+                    for (long id = lastSeenId + 1; id < user.getId() && idGaps.size() < loadBatchSize; id++) {
+                        idGaps.put(id, now + gapTimeoutNanos);
+                    }
+                }
+                seen(user);
+                lastSeenId = user.getId();
+            }
+        } while (page.size() == loadBatchSize);
+    }
+
+    private synchronized void recheckGaps() {
+        if (idGaps.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        idGaps.values().removeIf(deadline -> deadline - now <= 0);
+        if (idGaps.isEmpty()) {
+            return;
+        }
+        List<UserRepository.EmailView> found = userRepository.findEmailsByIdIn(List.copyOf(idGaps.keySet()));
+        if (found.isEmpty()) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        for (UserRepository.EmailView user : found) {
+            seen(user);
+            idGaps.remove(user.getId());
+        }
+    }
+
+    private void seen(UserRepository.EmailView user) {
+        String key = normalize(user.getEmail());
+        if (registeredEmails != null) {
+            registeredEmails.put(key);
+        }
+        unknownUntil.remove(key);
+    }
+
+    /*
+     * Devuelve el número de invalidaciones actual: hay que leerlo antes de la
+     * consulta y pasarlo a markUnknown si el email no aparece
+     */
+    public long invalidationStamp() {
+        return invalidations.get();
+    }
+
+    /*
+     * true si se sabe, sin consultar la base de datos, que el email no existe
+     */
+    public boolean isKnownUnknown(String email) {
+        String key = normalize(email);
+        if (bloomReady && !registeredEmails.mightContain(key)) {
+            bloomHits.increment();
+            return true;
+        }
+        Long until = unknownUntil.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until - System.nanoTime() > 0) {
+            cacheHits.increment();
+            return true;
+        }
+        unknownUntil.remove(key, until);
+        return false;
+    }
+
+    public void markUnknown(String email, long stamp) {
+        String key = normalize(email);
+        unknownUntil.put(key, System.nanoTime() + ttlNanos);
+        /*
+         * Si entre la consulta y el put se registró alguien, el email puede existir ya:
+         * se quita para no rechazarlo durante todo el TTL
+         */
+        if (invalidations.get() != stamp) {
+            unknownUntil.remove(key);
+        }
+    }
+
+    /*
+     * Llamado desde AuthService.register antes del INSERT: a partir de aquí el
+     * Bloom ya no puede dar el email por desconocido
+     */
+    public void registering(String email) {
+        if (registeredEmails != null) {
+            registeredEmails.put(normalize(email));
+        }
+    }
+
+    /*
+     * Llamado desde AuthService.register después del INSERT. register no abre
+     * transacción y saveAndFlush ya hizo commit, así que se invalida en el momento;
+     * si algún día se llama dentro de una transacción, se espera a su commit
+     */
+    public void registered(String email) {
+        String key = normalize(email);
+        Runnable invalidate = () -> {
+            invalidations.incrementAndGet();
+            unknownUntil.remove(key);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate.run();
+            }
+        });
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.tempuro.auth.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.tempuro.auth.security.RevocationEvent;
+import com.tempuro.auth.security.RevocationEventBus;
+import com.tempuro.auth.security.UserSnapshot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * Caché de UserSnapshot por email para el login
+ * 1. Acotada por número de entradas y por TTL: pasado el TTL la copia se descarta y
+ * se vuelve a leer de la base de datos. El TTL solo es el límite para cambios
+ * hechos fuera del servicio (un UPDATE a mano en MySQL); los del propio servicio
+ * llegan a todas las réplicas por el bus (punto 3).
+ * 2. Cada entrada lleva la detailsVersion del usuario. put() nunca sustituye una
+ * versión por otra más antigua: una lectura lenta que empezó antes de un cambio de
+ * contraseña, roles o enabled no puede pisar la copia nueva.
+ * 3. Los cambios hechos en este nodo se publican después del commit con
+ * updated(): la copia nueva reemplaza a la anterior sin esperar al TTL, y un
+ * evento DETAILS en el RevocationEventBus hace que las demás réplicas descarten
+ * su copia si es de una versión anterior. La siguiente búsqueda allí ya lee de la
+ * base de datos la contraseña, los roles y el enabled nuevos.
+ * 4. Es un LRU acotado a maxEntries, como la caché negativa de UnknownEmailCache:
+ * al guardar un usuario nuevo con la caché llena sale el usado hace más tiempo,
+ * sin recorrer el mapa en el hilo de la petición. Las caducadas que nadie vuelve a
+ * pedir acaban siendo las más antiguas y salen así (cause=expired).
+ *
+ * Métricas: auth.users.cache.requests (result=hit/miss), auth.users.cache.hit_ratio
+ * y auth.users.cache.evictions (cause=expired/size/invalidated/remote)
+ */
+@Component
+public class UserDetailsCache {
+
+    private final Map<String, Entry> entries;
+    private final RevocationEventBus eventBus;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long ttlNanos;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter expiredEvictions;
+    private final Counter sizeEvictions;
+    private final Counter invalidatedEvictions;
+    private final Counter remoteEvictions;
+
+    public UserDetailsCache(MeterRegistry meterRegistry, RevocationEventBus eventBus,
+            @Value("${auth.userCache.ttlSeconds:300}") long ttlSeconds,
+            @Value("${auth.userCache.maxEntries:10000}") int maxEntries) {
+        this.eventBus = eventBus;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+
+        this.hits = requests(meterRegistry, "hit");
+        this.misses = requests(meterRegistry, "miss");
+        this.expiredEvictions = evictions(meterRegistry, "expired");
+        this.sizeEvictions = evictions(meterRegistry, "size");
+        this.invalidatedEvictions = evictions(meterRegistry, "invalidated");
+        this.remoteEvictions = evictions(meterRegistry, "remote");
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                if (eldest.getValue().expiresAt - System.nanoTime() <= 0) {
+                    expiredEvictions.increment();
+                } else {
+                    sizeEvictions.increment();
+                }
+                return true;
+            }
+        });
+        Gauge.builder("auth.users.cache.hit_ratio", this, UserDetailsCache::hitRatio)
+                .description("Proporción de logins resueltos desde la caché de usuarios")
+                .register(meterRegistry);
+        Gauge.builder("auth.users.cache.size", entries, Map::size)
+                .description("Usuarios en la caché de login")
+                .register(meterRegistry);
+    }
+
+    public UserSnapshot get(String email) {
+        String key = normalize(email);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            if (entries.remove(key, entry)) {
+                expiredEvictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.snapshot;
+    }
+
+    /*
+     * Guarda la copia salvo que ya haya una de una versión posterior
+     */
+    public void put(UserSnapshot snapshot) {
+        String key = normalize(snapshot.email());
+        Entry fresh = new Entry(snapshot, System.nanoTime() + ttlNanos);
+        entries.merge(key, fresh,
+                (current, candidate) -> candidate.snapshot.detailsVersion() >= current.snapshot.detailsVersion()
+                        ? candidate
+                        : current);
+    }
+
+    /*
+     * Publica la copia de un usuario que se acaba de modificar. Dentro de una
+     * transacción espera al commit, para no dejar en caché datos que luego se deshacen
+     */
+    public void updated(UserSnapshot snapshot) {
+        Runnable publish = () -> {
+            put(snapshot);
+            eventBus.publish(RevocationEvent.details(nodeId, snapshot.id(), snapshot.email(),
+                    snapshot.detailsVersion()));
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish.run();
+            }
+        });
+    }
+
+    @PostConstruct
+    void subscribe() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    /*
+     * Cambio hecho en otra réplica: solo se descarta la copia si es anterior, sin
+     * leer la base de datos aquí. Lo hará el siguiente login de ese usuario.
+     */
+    private void onEvent(RevocationEvent event) {
+        if (event.type() != RevocationEvent.Type.DETAILS || nodeId.equals(event.origin())) {
+            return;
+        }
+        entries.computeIfPresent(normalize(event.email()), (key, entry) -> {
+            if (entry.snapshot.detailsVersion() >= event.detailsVersion()) {
+                return entry;
+            }
+            remoteEvictions.increment();
+            return null;
+        });
+    }
+
+    /*
+     * Se descarta la copia cuando la contraseña no coincide: si el hash cambió en
+     * otra réplica, el siguiente intento ya lo lee de la base de datos
+     */
+    public void invalidate(String email) {
+        if (entries.remove(normalize(email)) != null) {
+            invalidatedEvictions.increment();
+        }
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("auth.users.cache.requests")
+                .description("Búsquedas de usuario en la caché de login")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Counter evictions(MeterRegistry meterRegistry, String cause) {
+        return Counter.builder("auth.users.cache.evictions")
+                .description("Entradas descartadas de la caché de login")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+
+    private record Entry(UserSnapshot snapshot, long expiresAt) {
+    }
+
+}
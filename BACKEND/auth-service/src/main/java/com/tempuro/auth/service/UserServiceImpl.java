@@ -1,96 +1,169 @@
 package com.tempuro.auth.service;
 
+import java.time.LocalDateTime;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.tempuro.auth.model.User;
 import com.tempuro.auth.repository.UserRepository;
 import com.tempuro.auth.exception.UserNotFoundException;
+import com.tempuro.auth.security.UserSnapshot;
+import com.tempuro.auth.util.TracingHelper;
 
-import io.opentelemetry.api.GlobalOpenTelemetry;
-import io.opentelemetry.api.trace.Span;
-import io.opentelemetry.api.trace.Tracer;
-import io.opentelemetry.api.trace.StatusCode;
-import io.opentelemetry.context.Scope;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 @Service
-public class UserServiceImpl implements UserServiceInterface, UserDetailsService {
+public class UserServiceImpl implements UserServiceInterface, UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
-    private final Tracer tracer = GlobalOpenTelemetry.getTracer("user-service");
+    private final UnknownEmailCache unknownEmailCache;
+    private final UserDetailsCache userDetailsCache;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean readReplicaEnabled;
+    private final Timer lookupFound;
+    private final Timer lookupMissing;
+    private final TracingHelper tracing;
     private static final String USER_NOT_FOUND = "Usuario no encontrado";
-    private static final String SPAN_ATTR_USER_EMAIL = "user.email";
 
-    public UserServiceImpl(UserRepository userRepository) {
+    public UserServiceImpl(UserRepository userRepository, UnknownEmailCache unknownEmailCache,
+            UserDetailsCache userDetailsCache, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry, TracingHelper tracing,
+            @Value("${auth.datasource.routing.enabled:false}") boolean readReplicaEnabled) {
         this.userRepository = userRepository;
+        this.unknownEmailCache = unknownEmailCache;
+        this.userDetailsCache = userDetailsCache;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.readReplicaEnabled = readReplicaEnabled;
+        this.tracing = tracing;
+        this.lookupFound = lookupTimer(meterRegistry, "found");
+        this.lookupMissing = lookupTimer(meterRegistry, "missing");
+    }
+
+    /*
+     * Tiempo de la búsqueda de usuario por email en la base de datos, sin contar
+     * los aciertos de UserDetailsCache ni UnknownEmailCache
+     */
+    private static Timer lookupTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("auth.users.lookup")
+                .description("Búsqueda de usuario por email en la base de datos")
+                .tag("result", result)
+                .register(meterRegistry);
     }
 
+    /*
+     * Devuelve un UserSnapshot, no la entidad
+     * 1. Primero UserDetailsCache: un usuario que ha hecho login hace poco no se
+     * vuelve a leer de la base de datos.
+     * 2. Un email que UnknownEmailCache ya sabe que no existe se rechaza sin consulta.
+     * 3. El sello de invalidaciones se toma antes del SELECT para no cachear como
+     * desconocido un email que se registre mientras tanto.
+     * 4. El SELECT va en una transacción de solo lectura, que con
+     * auth.datasource.routing.enabled se sirve desde la réplica. Si la réplica no
+     * encuentra el email se confirma en el primario antes de darlo por desconocido:
+     * puede que el usuario se acabe de registrar y aún no se haya replicado.
+     */
     @Override
     public UserDetails loadUserByUsername(String email) {
-        Span span = tracer.spanBuilder("load-user-by-username").startSpan();
-        span.setAttribute(SPAN_ATTR_USER_EMAIL, email);
-        try (Scope scope = span.makeCurrent()) {
-            return userRepository.findByEmail(email)
-                    .orElseThrow(() -> {
-                        span.setStatus(StatusCode.ERROR, USER_NOT_FOUND);
-                        return new UserNotFoundException(USER_NOT_FOUND);
-                    });
-        } finally {
-            span.end();
-        }
+        return tracing.traced("load-user-by-username", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, email);
+            UserSnapshot cached = userDetailsCache.get(email);
+            span.setAttribute(TracingHelper.USER_CACHE_HIT, cached != null);
+            if (cached != null) {
+                return cached;
+            }
+            if (unknownEmailCache.isKnownUnknown(email)) {
+                span.setAttribute(TracingHelper.USER_UNKNOWN_CACHED, true);
+                throw new UserNotFoundException(USER_NOT_FOUND);
+            }
+            long stamp = unknownEmailCache.invalidationStamp();
+            Timer.Sample lookup = Timer.start();
+            UserSnapshot snapshot = readOnlyTransaction.execute(status -> userRepository.findByEmail(email)
+                    .map(UserSnapshot::of)
+                    .orElse(null));
+            if (snapshot == null && readReplicaEnabled) {
+                snapshot = userRepository.findByEmail(email)
+                        .map(UserSnapshot::of)
+                        .orElse(null);
+            }
+            lookup.stop(snapshot != null ? lookupFound : lookupMissing);
+            if (snapshot == null) {
+                unknownEmailCache.markUnknown(email, stamp);
+                throw new UserNotFoundException(USER_NOT_FOUND);
+            }
+            userDetailsCache.put(snapshot);
+            return snapshot;
+        });
     }
 
     @Override
     public User findByEmail(String email) {
-        Span span = tracer.spanBuilder("find-user-by-email").startSpan();
-        span.setAttribute(SPAN_ATTR_USER_EMAIL, email);
-        try (Scope scope = span.makeCurrent()) {
-            return userRepository.findByEmail(email)
-                    .orElseThrow(() -> {
-                        span.setStatus(StatusCode.ERROR, USER_NOT_FOUND);
-                        return new UserNotFoundException(USER_NOT_FOUND);
-                    });
-        } finally {
-            span.end();
-        }
+        return tracing.traced("find-user-by-email", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, email);
+            Timer.Sample lookup = Timer.start();
+            User user = userRepository.findByEmail(email).orElse(null);
+            lookup.stop(user != null ? lookupFound : lookupMissing);
+            if (user == null) {
+                throw new UserNotFoundException(USER_NOT_FOUND);
+            }
+            return user;
+        });
     }
 
     public boolean existsByEmail(String email) {
-        Span span = tracer.spanBuilder("check-user-existence").startSpan();
-        span.setAttribute(SPAN_ATTR_USER_EMAIL, email);
-        try (Scope scope = span.makeCurrent()) {
-            boolean exists = userRepository.findByEmail(email).isPresent();
-            span.setAttribute("user.exists", exists);
+        return tracing.traced("check-user-existence", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, email);
+            boolean exists = userRepository.existsByEmail(email);
+            span.setAttribute(TracingHelper.USER_EXISTS, exists);
             return exists;
-        } finally {
-            span.end();
-        }
+        });
     }
 
     public User saveUser(User user) {
-        Span span = tracer.spanBuilder("save-user").startSpan();
-        span.setAttribute(SPAN_ATTR_USER_EMAIL, user.getEmail());
-        try (Scope scope = span.makeCurrent()) {
+        return tracing.traced("save-user", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, user.getEmail());
             return userRepository.save(user);
-        } catch (Exception e) {
-            span.setStatus(StatusCode.ERROR, "Error guardando usuario: " + e.getMessage());
-            throw e;
-        } finally {
-            span.end();
-        }
+        });
     }
 
     public User saveAndFlush(User user) {
-        Span span = tracer.spanBuilder("save-and-flush-user").startSpan();
-        span.setAttribute(SPAN_ATTR_USER_EMAIL, user.getEmail());
-        try (Scope scope = span.makeCurrent()) {
+        return tracing.traced("save-and-flush-user", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, user.getEmail());
             return userRepository.saveAndFlush(user);
-        } catch (Exception e) {
-            span.setStatus(StatusCode.ERROR, "Error guardando usuario (flush): " + e.getMessage());
-            throw e;
-        } finally {
-            span.end();
-        }
+        });
+    }
+
+    /*
+     * Hook de Spring Security (UserDetailsPasswordService)
+     * DaoAuthenticationProvider lo llama tras un login correcto cuando
+     * PasswordEncoder.upgradeEncoding() indica que el hash usa parámetros antiguos.
+     * newPassword ya llega codificado con la configuración actual.
+     * La contraseña en claro no cambia, así que no se revocan los tokens emitidos.
+     * userDetails es el UserSnapshot de loadUserByUsername: se carga la entidad para
+     * actualizarla y la copia nueva (con detailsVersion ya incrementada) sustituye
+     * a la de la caché tras el commit.
+     */
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        UserSnapshot snapshot = (UserSnapshot) userDetails;
+        return tracing.traced("upgrade-password-hash", span -> {
+            span.setAttribute(TracingHelper.USER_EMAIL, snapshot.email());
+            User user = userRepository.findById(snapshot.id())
+                    .orElseThrow(() -> new UserNotFoundException(USER_NOT_FOUND));
+            user.setPassword(newPassword);
+            user.setUpdatedAt(LocalDateTime.now());
+            UserSnapshot updated = UserSnapshot.of(userRepository.save(user));
+            userDetailsCache.updated(updated);
+            return updated;
+        });
     }
 }
@@ -0,0 +1,102 @@
+package com.tempuro.auth.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Filtro de Bloom para cadenas, thread-safe y sin bloqueos
+ * 1. mightContain() == false significa que el valor seguro que NO se ha añadido
+ * (nunca hay falsos negativos). true significa "puede que sí": hay que confirmarlo
+ * con la estructura exacta que haya detrás.
+ * 2. El tamaño se calcula a partir de los elementos esperados y la tasa de falsos
+ * positivos deseada: m = -n·ln(p) / ln(2)^2 bits y k = m/n·ln(2) funciones hash.
+ * 3. Los bits viven en un AtomicLongArray, así put() y mightContain() se pueden
+ * llamar desde cualquier hilo a la vez.
+ * 4. No permite borrar: para quitar elementos se construye un filtro nuevo.
+ */
+public class BloomFilter {
+
+    private static final long SECOND_HASH_SEED = 0x9E3779B97F4A7C15L;
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final AtomicLong insertions = new AtomicLong();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1L, expectedInsertions);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+        int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (m + 63) / 64));
+
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = words * 64L;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / n * ln2));
+    }
+
+    public void put(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1 ^ SECOND_HASH_SEED) | 1L;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitSize);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            if ((bits.get(word) & mask) == 0) {
+                bits.getAndAccumulate(word, mask, (current, m) -> current | m);
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1 ^ SECOND_HASH_SEED) | 1L;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitSize);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Tasa de falsos positivos esperada con los elementos añadidos hasta ahora:
+     * (1 - e^(-k·n/m))^k
+     */
+    public double expectedFalsePositiveRate() {
+        double fillRatio = -(double) hashFunctions * insertions.get() / bitSize;
+        return Math.pow(1 - Math.exp(fillRatio), hashFunctions);
+    }
+
+    public long sizeInBytes() {
+        return bits.length() * 8L;
+    }
+
+    public long insertions() {
+        return insertions.get();
+    }
+
+    /*
+     * FNV-1a de 64 bits sobre los caracteres, mezclado después para repartir
+     * bien los bits incluso con cadenas muy parecidas
+     */
+    private static long hash(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.tempuro.auth.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class TokenHashUtil {
+
+    // Impide la instancicación de la clase ya que tiene metodos estáticos
+    // Y nadie deberia crear objetos de esta clase
+    private TokenHashUtil() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /*
+     * Longitud del hash en hexadecimal: SHA-256 son 32 bytes, 64 caracteres
+     */
+    public static final int HASH_LENGTH = 64;
+
+    /*
+     * MessageDigest no es thread-safe pero sí reutilizable con reset(),
+     * así que guardamos uno por hilo en lugar de pedir uno nuevo en cada llamada
+     */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible en la JVM", e);
+        }
+    });
+
+    /*
+     * Hash del refresh token tal y como se guarda en tokens.token_hash
+     * 1. La base de datos nunca ve el JWT en claro: si se filtra la tabla, los
+     * hashes no sirven para pedir access tokens.
+     * 2. Todos los hashes miden lo mismo (64 caracteres), así el índice único es
+     * compacto y la búsqueda compara cadenas cortas de longitud fija.
+     */
+    public static String sha256Hex(String token) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
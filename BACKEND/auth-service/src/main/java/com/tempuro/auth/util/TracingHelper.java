@@ -0,0 +1,148 @@
+package com.tempuro.auth.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+/*
+ * Crea los spans del servicio sin repetir en cada método el bloque
+ * Span / Scope / try / finally
+ * 1. traced(nombre, span -> ...) abre el span, lo hace actual, ejecuta el código y
+ * lo cierra; tracedRun es lo mismo para código que no devuelve nada. Para bloques
+ * que lanzan varias excepciones checked distintas está start(nombre), que se usa
+ * con try-with-resources.
+ * 2. Si una excepción sale del bloque el span se marca como ERROR con el nombre de
+ * la excepción, sin concatenar mensajes. Cuando el bloque no lanza pero la
+ * operación falla (una respuesta 4xx, por ejemplo) marca el span que recibe con
+ * TracingHelper.error(span, ...), nunca con span.setStatus directamente.
+ * 3. Sin coste cuando no se va a grabar nada: con auth.tracing.mode=off, o dentro de
+ * un span local que no se graba (el sampler descartaría igualmente al hijo), no se
+ * crea span ni se toca el contexto y el bloque recibe el span actual, no-op.
+ * 4. El Tracer se inyecta (OpenTelemetryConfig) en lugar de pedirlo a
+ * GlobalOpenTelemetry en cada clase.
+ * 5. Las claves de atributos se crean una vez aquí: setAttribute(String, ...) crea
+ * una AttributeKey nueva en cada llamada.
+ */
+@Component
+public class TracingHelper {
+
+    public static final AttributeKey<String> USER_EMAIL = AttributeKey.stringKey("user.email");
+    public static final AttributeKey<Boolean> USER_CACHE_HIT = AttributeKey.booleanKey("user.cache_hit");
+    public static final AttributeKey<Boolean> USER_UNKNOWN_CACHED = AttributeKey.booleanKey("user.unknown_cached");
+    public static final AttributeKey<Boolean> USER_EXISTS = AttributeKey.booleanKey("user.exists");
+    public static final AttributeKey<Boolean> ERROR = AttributeKey.booleanKey("error");
+
+    @FunctionalInterface
+    public interface TracedCall<T, E extends Exception> {
+        T call(Span span) throws E;
+    }
+
+    @FunctionalInterface
+    public interface TracedRun<E extends Exception> {
+        void run(Span span) throws E;
+    }
+
+    /*
+     * Span abierto por start(). close() no lanza nada, así que el bloque puede
+     * declarar las excepciones que quiera. Aquí no se ve la excepción: el estado
+     * de error lo pone el propio bloque con span().
+     */
+    public static final class TracedSpan implements AutoCloseable {
+
+        private static final TracedSpan SKIPPED = new TracedSpan(Span.getInvalid(), null);
+
+        private final Span span;
+        private final Scope scope;
+
+        private TracedSpan(Span span, Scope scope) {
+            this.span = span;
+            this.scope = scope;
+        }
+
+        public Span span() {
+            return span;
+        }
+
+        @Override
+        public void close() {
+            if (scope != null) {
+                scope.close();
+                span.end();
+            }
+        }
+    }
+
+    private final Tracer tracer;
+    private final boolean enabled;
+
+    public TracingHelper(Tracer tracer, @Value("${auth.tracing.mode:full}") String mode) {
+        this.tracer = tracer;
+        this.enabled = !"off".equalsIgnoreCase(mode.trim());
+    }
+
+    public <T, E extends Exception> T traced(String name, TracedCall<T, E> work) throws E {
+        Span parent = Span.current();
+        if (skip(parent)) {
+            return work.call(parent);
+        }
+        Span span = tracer.spanBuilder(name).startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            return work.call(span);
+        } catch (Throwable e) {
+            markError(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    public TracedSpan start(String name) {
+        if (skip(Span.current())) {
+            return TracedSpan.SKIPPED;
+        }
+        Span span = tracer.spanBuilder(name).startSpan();
+        return new TracedSpan(span, span.makeCurrent());
+    }
+
+    public <E extends Exception> void tracedRun(String name, TracedRun<E> work) throws E {
+        traced(name, span -> {
+            work.run(span);
+            return null;
+        });
+    }
+
+    /*
+     * Pone el estado ERROR y además el atributo error: TracingSpanProcessor lo lee
+     * con ReadableSpan.getAttribute, sin copiar el span con toSpanData() para ver
+     * el estado
+     */
+    public static void error(Span span, String description) {
+        span.setStatus(StatusCode.ERROR, description);
+        span.setAttribute(ERROR, true);
+    }
+
+    private static void markError(Span span, Throwable e) {
+        if (span.isRecording()) {
+            error(span, e.getClass().getSimpleName());
+        }
+    }
+
+    /*
+     * Un padre remoto tampoco se graba (Span.wrap) pero sí hay que crear el span
+     * local: TracingSampler decide con el padre remoto
+     */
+    private boolean skip(Span parent) {
+        if (!enabled) {
+            return true;
+        }
+        SpanContext parentContext = parent.getSpanContext();
+        return parentContext.isValid() && !parentContext.isRemote() && !parent.isRecording();
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.tempuro.auth.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.repository.UserRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * El Bloom de RevocationIndex solo puede equivocarse hacia el sí: un hash revocado
+ * tiene que rechazarse siempre, también justo después de revocarlo mientras otro
+ * hilo reconstruye el índice
+ */
+class RevocationIndexTest {
+
+    // Bloom pequeño a propósito: saturado da muchos falsos positivos, nunca un falso negativo
+    private static final long EXPECTED_ENTRIES = 1_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long ACCESS_EXPIRATION_MS = 900_000;
+
+    private TokenRepository tokenRepository;
+    private UserRepository userRepository;
+    private RevocationIndex index;
+
+    @BeforeEach
+    void setUp() {
+        tokenRepository = mock(TokenRepository.class);
+        userRepository = mock(UserRepository.class);
+        index = new RevocationIndex(tokenRepository, userRepository, new LoopbackRevocationEventBus(),
+                EXPECTED_ENTRIES, FALSE_POSITIVE_RATE, ACCESS_EXPIRATION_MS, new SimpleMeterRegistry());
+        index.subscribe();
+    }
+
+    @Test
+    void everyRevokedHashIsRejected() {
+        List<String> revoked = hashes(20_000);
+        for (int from = 0; from < revoked.size(); from += 100) {
+            index.revokeTokens(revoked.subList(from, from + 100));
+        }
+
+        assertThat(revoked).allMatch(index::isTokenRevoked);
+        assertThat(hashes(1_000)).noneMatch(index::isTokenRevoked);
+    }
+
+    @Test
+    void rebuildLoadsEveryRevokedHashFromTheDatabase() {
+        List<String> stored = hashes(5_000);
+        when(tokenRepository.findRevokedHashes(any())).thenReturn(stored);
+
+        index.rebuild();
+
+        assertThat(stored).allMatch(index::isTokenRevoked);
+    }
+
+    @Test
+    void revocationsAppliedWhileTheDatabaseIsReadSurviveTheSwap() {
+        List<String> stored = hashes(2_000);
+        List<String> revokedDuringRebuild = hashes(500);
+        when(tokenRepository.findRevokedHashes(any())).thenAnswer(invocation -> {
+            // Llegan después de la consulta: la lista de la base de datos no las trae
+            index.revokeTokens(revokedDuringRebuild);
+            return stored;
+        });
+
+        index.rebuild();
+
+        assertThat(stored).allMatch(index::isTokenRevoked);
+        assertThat(revokedDuringRebuild).allMatch(index::isTokenRevoked);
+    }
+
+    /*
+     * Un hilo revoca lotes (primero el "commit" en la base de datos simulada, luego
+     * el índice, como afterCommit) y comprueba cada hash en cuanto revokeTokens
+     * devuelve, mientras el hilo principal reconstruye una y otra vez hasta que acaba
+     */
+    @Test
+    void noRevokedHashIsAcceptedWhileRebuildingConcurrently() throws InterruptedException {
+        Set<String> database = ConcurrentHashMap.newKeySet();
+        when(tokenRepository.findRevokedHashes(any())).thenAnswer(invocation -> List.copyOf(database));
+
+        List<String> accepted = new ArrayList<>();
+        List<String> revoked = new ArrayList<>();
+        Thread revoker = new Thread(() -> {
+            for (int i = 0; i < 2_000; i++) {
+                List<String> batch = hashes(10);
+                database.addAll(batch);
+                index.revokeTokens(batch);
+                revoked.addAll(batch);
+                batch.stream().filter(hash -> !index.isTokenRevoked(hash)).forEach(accepted::add);
+            }
+        });
+        revoker.start();
+        int rebuilds = 0;
+        while (revoker.isAlive()) {
+            index.rebuild();
+            rebuilds++;
+        }
+        revoker.join();
+
+        assertThat(rebuilds).isGreaterThan(1);
+        assertThat(accepted).isEmpty();
+        assertThat(revoked).allMatch(index::isTokenRevoked);
+    }
+
+    @Test
+    void revocationsFromAnotherNodeAreRejected() {
+        LoopbackRevocationEventBus bus = new LoopbackRevocationEventBus();
+        RevocationIndex origin = new RevocationIndex(tokenRepository, userRepository, bus,
+                EXPECTED_ENTRIES, FALSE_POSITIVE_RATE, ACCESS_EXPIRATION_MS, new SimpleMeterRegistry());
+        RevocationIndex replica = new RevocationIndex(tokenRepository, userRepository, bus,
+                EXPECTED_ENTRIES, FALSE_POSITIVE_RATE, ACCESS_EXPIRATION_MS, new SimpleMeterRegistry());
+        origin.subscribe();
+        replica.subscribe();
+
+        List<String> revoked = hashes(3_000);
+        origin.revokeTokens(revoked);
+
+        assertThat(revoked).allMatch(replica::isTokenRevoked);
+    }
+
+    private static List<String> hashes(int count) {
+        List<String> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hashes.add(UUID.randomUUID().toString());
+        }
+        return hashes;
+    }
+
+}
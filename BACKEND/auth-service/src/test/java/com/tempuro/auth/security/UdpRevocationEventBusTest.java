@@ -0,0 +1,179 @@
+package com.tempuro.auth.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.tempuro.auth.repository.TokenRepository;
+import com.tempuro.auth.repository.UserRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * Tres nodos en la misma máquina, cada uno con su UdpRevocationEventBus en un
+ * puerto de localhost y su RevocationIndex: lo que se revoca en uno se rechaza en
+ * los demás. Un cuarto puerto hace de peer de confianza controlado por el test
+ * para enviar datagramas a mano.
+ */
+class UdpRevocationEventBusTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final String SHARED_KEY = "0123456789abcdef0123456789abcdef";
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final List<UdpRevocationEventBus> buses = new ArrayList<>();
+    private final List<RevocationIndex> nodes = new ArrayList<>();
+    private final List<DatagramSocket> sockets = new ArrayList<>();
+    private List<Integer> ports;
+    private DatagramSocket trustedPeer;
+
+    @BeforeEach
+    void startNodes() throws Exception {
+        trustedPeer = socket();
+        ports = List.of(freePort(), freePort(), freePort());
+        for (int port : ports) {
+            String peers = ports.stream()
+                    .filter(other -> other != port)
+                    .map(other -> HOST + ":" + other)
+                    .collect(Collectors.joining(","))
+                    + "," + HOST + ":" + trustedPeer.getLocalPort();
+            UdpRevocationEventBus bus = new UdpRevocationEventBus(HOST, port, peers, SHARED_KEY);
+            RevocationIndex index = new RevocationIndex(mock(TokenRepository.class), mock(UserRepository.class), bus,
+                    1_000, 0.01, 900_000, new SimpleMeterRegistry());
+            index.subscribe();
+            buses.add(bus);
+            nodes.add(index);
+        }
+    }
+
+    @AfterEach
+    void stopNodes() {
+        buses.forEach(UdpRevocationEventBus::close);
+        sockets.forEach(DatagramSocket::close);
+    }
+
+    @Test
+    void revokedTokensAreRejectedOnEveryNode() {
+        List<String> revoked = List.of(sha256("a"), sha256("b"), sha256("c"));
+
+        nodes.get(0).revokeTokens(revoked);
+
+        for (RevocationIndex node : nodes) {
+            awaitTrue(() -> revoked.stream().allMatch(node::isTokenRevoked));
+        }
+    }
+
+    @Test
+    void userRevocationsAreEnforcedOnEveryNode() {
+        long issuedBefore = Instant.now().getEpochSecond() - 60;
+
+        nodes.get(1).revokeUser(42L, Instant.now());
+
+        for (RevocationIndex node : nodes) {
+            awaitTrue(() -> node.isRevokedForUser(42L, issuedBefore));
+        }
+        assertThat(nodes.get(0).isRevokedForUser(7L, issuedBefore)).isFalse();
+    }
+
+    /*
+     * El datagrama mal firmado sale antes que uno válido desde el mismo socket: cuando
+     * el válido ya se ha aplicado, el primero se ha recibido y descartado
+     */
+    @Test
+    void datagramsWithAnInvalidSignatureAreDropped() throws Exception {
+        String forged = sha256("forged");
+        String valid = sha256("valid");
+
+        send(trustedPeer, tokensMessage(forged), "another-key-another-key-another-key");
+        send(trustedPeer, tokensMessage(valid), SHARED_KEY);
+
+        for (RevocationIndex node : nodes) {
+            awaitTrue(() -> node.isTokenRevoked(valid));
+            assertThat(node.isTokenRevoked(forged)).isFalse();
+        }
+    }
+
+    @Test
+    void datagramsFromUntrustedSendersAreDropped() throws Exception {
+        DatagramSocket stranger = socket();
+        String foreign = sha256("foreign");
+        String valid = sha256("valid");
+
+        // Bien firmado, pero desde un puerto que no está en peers
+        send(stranger, tokensMessage(foreign), SHARED_KEY);
+        send(trustedPeer, tokensMessage(valid), SHARED_KEY);
+
+        for (RevocationIndex node : nodes) {
+            awaitTrue(() -> node.isTokenRevoked(valid));
+            assertThat(node.isTokenRevoked(foreign)).isFalse();
+        }
+    }
+
+    private void send(DatagramSocket from, String message, String key) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String signature = HexFormat.of().formatHex(mac.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+        byte[] payload = (message + "|" + signature).getBytes(StandardCharsets.UTF_8);
+        for (int port : ports) {
+            from.send(new DatagramPacket(payload, payload.length, new InetSocketAddress(HOST, port)));
+        }
+    }
+
+    private static String tokensMessage(String hash) {
+        return UUID.randomUUID() + "|TOKENS|" + hash;
+    }
+
+    private DatagramSocket socket() throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(HOST, 0));
+        sockets.add(socket);
+        return socket;
+    }
+
+    private static int freePort() throws Exception {
+        try (DatagramSocket probe = new DatagramSocket(new InetSocketAddress(HOST, 0))) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("tiempo de propagación agotado").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
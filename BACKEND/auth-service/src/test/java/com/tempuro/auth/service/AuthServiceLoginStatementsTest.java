@@ -0,0 +1,129 @@
+package com.tempuro.auth.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.tempuro.auth.dto.LoginRequest;
+import com.tempuro.auth.dto.RegisterRequest;
+import com.tempuro.auth.exception.EmailAlreadyRegisteredException;
+
+/*
+ * Sentencias SQL de un login contra H2
+ * Se cuentan en el Connection, así entran tanto las de Hibernate como el INSERT del
+ * refresh token, que RefreshTokenWriter hace con JdbcTemplate. Solo cuentan las del
+ * hilo del test: el last_login y la auditoría los escribe después
+ * LoginActivityRecorder desde su propio hilo.
+ */
+@SpringBootTest
+class AuthServiceLoginStatementsTest {
+
+    private static final String EMAIL = "statements@test.com";
+    private static final String PASSWORD = "secret1";
+
+    private static final Queue<Statement> STATEMENTS = new ConcurrentLinkedQueue<>();
+
+    private record Statement(Thread thread, String sql) {
+    }
+
+    @TestConfiguration
+    static class CountingDataSourceConfig {
+
+        @Bean
+        static BeanPostProcessor countingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof DataSource dataSource) {
+                        return new DelegatingDataSource(dataSource) {
+                            @Override
+                            public Connection getConnection() throws SQLException {
+                                return counting(super.getConnection());
+                            }
+                        };
+                    }
+                    return bean;
+                }
+            };
+        }
+
+        private static Connection counting(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        if (method.getName().startsWith("prepare")) {
+                            STATEMENTS.add(new Statement(Thread.currentThread(), (String) args[0]));
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private UserDetailsCache userDetailsCache;
+
+    @BeforeEach
+    void registerUser() throws Exception {
+        try {
+            authService.register(new RegisterRequest("statements", EMAIL, PASSWORD));
+        } catch (EmailAlreadyRegisteredException e) {
+            // Ya registrado por el test anterior: el contexto de Spring se reutiliza
+        }
+    }
+
+    @Test
+    void loginReadsTheUserOnceAndInsertsTheRefreshToken() throws Exception {
+        userDetailsCache.invalidate(EMAIL);
+
+        List<String> statements = login();
+
+        assertThat(statements).filteredOn(sql -> sql.startsWith("select") && sql.contains(" users "))
+                .hasSize(1);
+        assertThat(statements).filteredOn(sql -> sql.startsWith("insert into tokens")).hasSize(1);
+        assertThat(statements).hasSize(2);
+    }
+
+    @Test
+    void loginWithTheUserCachedOnlyInsertsTheRefreshToken() throws Exception {
+        login();
+
+        List<String> statements = login();
+
+        assertThat(statements).singleElement().asString().startsWith("insert into tokens");
+    }
+
+    private List<String> login() throws Exception {
+        STATEMENTS.clear();
+        authService.login(new LoginRequest(EMAIL, PASSWORD));
+        Thread current = Thread.currentThread();
+        return STATEMENTS.stream()
+                .filter(statement -> statement.thread() == current)
+                .map(statement -> statement.sql().trim().toLowerCase(Locale.ROOT))
+                .toList();
+    }
+
+}
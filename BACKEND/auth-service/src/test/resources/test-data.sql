@@ -0,0 +1 @@
+INSERT INTO roles(name) VALUES ('ROLE_ADMIN'),('ROLE_CLIENT');